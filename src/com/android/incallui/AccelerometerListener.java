@@ -22,13 +22,20 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 import android.util.Log;
 
 /**
  * This class is used to listen to the accelerometer to monitor the
  * orientation of the phone. The client of this class is notified when
  * the orientation changes between horizontal and vertical.
+ *
+ * Sensor events are received and filtered on a background thread, which lets the sensor batch
+ * them, and only debounced orientation changes are posted to the main thread. enable() and the
+ * client callback are on the main thread.
  */
 public final class AccelerometerListener {
     private static final String TAG = "AccelerometerListener";
@@ -38,13 +45,13 @@ public final class AccelerometerListener {
     private SensorManager mSensorManager;
     private Sensor mSensor;
 
-    // mOrientation is the orientation value most recently reported to the client.
-    private int mOrientation;
-
-    // mPendingOrientation is the latest orientation computed based on the sensor value.
-    // This is sent to the client after a rebounce delay, at which point it is copied to
-    // mOrientation.
-    private int mPendingOrientation;
+    // The thread sensor events are delivered and filtered on, while enabled.
+    private HandlerThread mSensorThread;
+    private SensorSession mSensorSession;
+    // Incremented every time the listener is enabled, so that orientation changes posted by an
+    // earlier session can be told apart and dropped.
+    private int mSession;
+    private boolean mEnabled;
 
     private OrientationListener mListener;
 
@@ -54,11 +61,17 @@ public final class AccelerometerListener {
     public static final int ORIENTATION_HORIZONTAL = 2;
 
     private static final int ORIENTATION_CHANGED = 1234;
+    private static final int ORIENTATION_REPORTED = 1235;
 
     private static final int VERTICAL_DEBOUNCE = 100;
     private static final int HORIZONTAL_DEBOUNCE = 500;
     private static final double VERTICAL_ANGLE = 50.0;
 
+    // How long the sensor may hold events back to deliver them in batches, on sensors with a
+    // hardware FIFO. Kept to the vertical debounce, so a change is never reported more than
+    // twice as late as before.
+    private static final int MAX_REPORT_LATENCY_US = VERTICAL_DEBOUNCE * 1000;
+
     public interface OrientationListener {
         public void orientationChanged(int orientation);
     }
@@ -71,21 +84,67 @@ public final class AccelerometerListener {
 
     public void enable(boolean enable) {
         if (DEBUG) Log.d(TAG, "enable(" + enable + ")");
-        synchronized (this) {
-            if (enable) {
-                mOrientation = ORIENTATION_UNKNOWN;
-                mPendingOrientation = ORIENTATION_UNKNOWN;
-                mSensorManager.registerListener(mSensorListener, mSensor,
-                        SensorManager.SENSOR_DELAY_NORMAL);
-            } else {
-                mSensorManager.unregisterListener(mSensorListener);
-                mHandler.removeMessages(ORIENTATION_CHANGED);
-            }
+        if (enable == mEnabled) {
+            return;
+        }
+        mEnabled = enable;
+        if (enable) {
+            mSensorThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mSensorThread.start();
+            mSensorSession = new SensorSession(mSensorThread.getLooper(), ++mSession);
+            mSensorManager.registerListener(mSensorSession, mSensor,
+                    SensorManager.SENSOR_DELAY_NORMAL, MAX_REPORT_LATENCY_US, mSensorSession);
+        } else {
+            mSensorManager.unregisterListener(mSensorSession);
+            mSensorThread.quitSafely();
+            mSensorThread = null;
+            mSensorSession = null;
+            mHandler.removeMessages(ORIENTATION_REPORTED);
         }
     }
 
-    private void setOrientation(int orientation) {
-        synchronized (this) {
+    /**
+     * Receives sensor events and debounces orientation changes on the sensor thread, for one
+     * enabled session. Only debounced changes are posted to the main thread.
+     */
+    private final class SensorSession extends Handler implements SensorEventListener {
+        private final int mSessionId;
+
+        // mOrientation is the orientation value most recently reported to the client.
+        private int mOrientation = ORIENTATION_UNKNOWN;
+
+        // mPendingOrientation is the latest orientation computed based on the sensor value.
+        // This is sent to the client after a rebounce delay, at which point it is copied to
+        // mOrientation.
+        private int mPendingOrientation = ORIENTATION_UNKNOWN;
+
+        SensorSession(Looper looper, int sessionId) {
+            super(looper);
+            mSessionId = sessionId;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onSensorEvent(event.values[0], event.values[1], event.values[2]);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // ignore
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+            case ORIENTATION_CHANGED:
+                mOrientation = mPendingOrientation;
+                mHandler.obtainMessage(ORIENTATION_REPORTED, mOrientation, mSessionId)
+                        .sendToTarget();
+                break;
+            }
+        }
+
+        private void setOrientation(int orientation) {
             if (mPendingOrientation == orientation) {
                 // Pending orientation has not changed, so do nothing.
                 return;
@@ -94,66 +153,59 @@ public final class AccelerometerListener {
             // Cancel any pending messages.
             // We will either start a new timer or cancel alltogether
             // if the orientation has not changed.
-            mHandler.removeMessages(ORIENTATION_CHANGED);
+            removeMessages(ORIENTATION_CHANGED);
 
             if (mOrientation != orientation) {
                 // Set timer to send an event if the orientation has changed since its
                 // previously reported value.
                 mPendingOrientation = orientation;
-                final Message m = mHandler.obtainMessage(ORIENTATION_CHANGED);
+                final Message m = obtainMessage(ORIENTATION_CHANGED);
                 // set delay to our debounce timeout
                 int delay = (orientation == ORIENTATION_VERTICAL ? VERTICAL_DEBOUNCE
                                                                  : HORIZONTAL_DEBOUNCE);
-                mHandler.sendMessageDelayed(m, delay);
+                sendMessageDelayed(m, delay);
             } else {
                 // no message is pending
                 mPendingOrientation = ORIENTATION_UNKNOWN;
             }
         }
-    }
-
-    private void onSensorEvent(double x, double y, double z) {
-        if (VDEBUG) Log.d(TAG, "onSensorEvent(" + x + ", " + y + ", " + z + ")");
-
-        // If some values are exactly zero, then likely the sensor is not powered up yet.
-        // ignore these events to avoid false horizontal positives.
-        if (x == 0.0 || y == 0.0 || z == 0.0) return;
-
-        // magnitude of the acceleration vector projected onto XY plane
-        final double xy = Math.sqrt(x*x + y*y);
-        // compute the vertical angle
-        double angle = Math.atan2(xy, z);
-        // convert to degrees
-        angle = angle * 180.0 / Math.PI;
-        final int orientation = (angle >  VERTICAL_ANGLE ? ORIENTATION_VERTICAL : ORIENTATION_HORIZONTAL);
-        if (VDEBUG) Log.d(TAG, "angle: " + angle + " orientation: " + orientation);
-        setOrientation(orientation);
-    }
-
-    SensorEventListener mSensorListener = new SensorEventListener() {
-        public void onSensorChanged(SensorEvent event) {
-            onSensorEvent(event.values[0], event.values[1], event.values[2]);
-        }
 
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-            // ignore
+        private void onSensorEvent(double x, double y, double z) {
+            if (VDEBUG) Log.d(TAG, "onSensorEvent(" + x + ", " + y + ", " + z + ")");
+
+            // If some values are exactly zero, then likely the sensor is not powered up yet.
+            // ignore these events to avoid false horizontal positives.
+            if (x == 0.0 || y == 0.0 || z == 0.0) return;
+
+            // magnitude of the acceleration vector projected onto XY plane
+            final double xy = Math.sqrt(x*x + y*y);
+            // compute the vertical angle
+            double angle = Math.atan2(xy, z);
+            // convert to degrees
+            angle = angle * 180.0 / Math.PI;
+            final int orientation = (angle > VERTICAL_ANGLE
+                    ? ORIENTATION_VERTICAL : ORIENTATION_HORIZONTAL);
+            if (VDEBUG) Log.d(TAG, "angle: " + angle + " orientation: " + orientation);
+            setOrientation(orientation);
         }
-    };
+    }
 
-    Handler mHandler = new Handler() {
+    Handler mHandler = new Handler(Looper.getMainLooper()) {
         public void handleMessage(Message msg) {
             switch (msg.what) {
-            case ORIENTATION_CHANGED:
-                synchronized (this) {
-                    mOrientation = mPendingOrientation;
-                    if (DEBUG) {
-                        Log.d(TAG, "orientation: " +
-                            (mOrientation == ORIENTATION_HORIZONTAL ? "horizontal"
-                                : (mOrientation == ORIENTATION_VERTICAL ? "vertical"
-                                    : "unknown")));
-                    }
-                    mListener.orientationChanged(mOrientation);
+            case ORIENTATION_REPORTED:
+                if (!mEnabled || msg.arg2 != mSession) {
+                    // Posted before the listener was last disabled.
+                    break;
+                }
+                final int orientation = msg.arg1;
+                if (DEBUG) {
+                    Log.d(TAG, "orientation: " +
+                        (orientation == ORIENTATION_HORIZONTAL ? "horizontal"
+                            : (orientation == ORIENTATION_VERTICAL ? "vertical"
+                                : "unknown")));
                 }
+                mListener.orientationChanged(orientation);
                 break;
             }
         }
@@ -16,12 +16,12 @@
 
 package com.android.incallui;
 
-import com.google.common.collect.Lists;
+import com.android.incallui.ListenerRegistry.Event1;
 
 import android.telecom.AudioState;
 import android.telecom.Phone;
 
-import java.util.List;
+import java.io.PrintWriter;
 
 /**
  * Proxy class for getting and setting the audio mode.
@@ -31,10 +31,36 @@ import java.util.List;
     static final int AUDIO_MODE_INVALID = 0;
 
     private static AudioModeProvider sAudioModeProvider = new AudioModeProvider();
+
+    private static final Event1<AudioModeListener, Integer> ON_AUDIO_MODE =
+            new Event1<AudioModeListener, Integer>() {
+        @Override
+        public void dispatch(AudioModeListener listener, Integer mode) {
+            listener.onAudioMode(mode);
+        }
+    };
+
+    private static final Event1<AudioModeListener, Boolean> ON_MUTE =
+            new Event1<AudioModeListener, Boolean>() {
+        @Override
+        public void dispatch(AudioModeListener listener, Boolean muted) {
+            listener.onMute(muted);
+        }
+    };
+
+    private static final Event1<AudioModeListener, Integer> ON_SUPPORTED_AUDIO_MODE =
+            new Event1<AudioModeListener, Integer>() {
+        @Override
+        public void dispatch(AudioModeListener listener, Integer modeMask) {
+            listener.onSupportedAudioMode(modeMask);
+        }
+    };
+
     private int mAudioMode = AudioState.ROUTE_EARPIECE;
     private boolean mMuted = false;
     private int mSupportedModes = AudioState.ROUTE_ALL;
-    private final List<AudioModeListener> mListeners = Lists.newArrayList();
+    private final ListenerRegistry<AudioModeListener> mListeners =
+            new ListenerRegistry<AudioModeListener>("listeners", true);
     private Phone mPhone;
 
     private Phone.Listener mPhoneListener = new Phone.Listener() {
@@ -64,30 +90,23 @@ import java.util.List;
     public void onAudioModeChange(int newMode, boolean muted) {
         if (mAudioMode != newMode) {
             mAudioMode = newMode;
-            for (AudioModeListener l : mListeners) {
-                l.onAudioMode(mAudioMode);
-            }
+            mListeners.dispatch(ON_AUDIO_MODE, mAudioMode);
         }
 
         if (mMuted != muted) {
             mMuted = muted;
-            for (AudioModeListener l : mListeners) {
-                l.onMute(mMuted);
-            }
+            mListeners.dispatch(ON_MUTE, mMuted);
         }
     }
 
     public void onSupportedAudioModeChange(int newModeMask) {
         mSupportedModes = newModeMask;
 
-        for (AudioModeListener l : mListeners) {
-            l.onSupportedAudioMode(mSupportedModes);
-        }
+        mListeners.dispatch(ON_SUPPORTED_AUDIO_MODE, mSupportedModes);
     }
 
     public void addListener(AudioModeListener listener) {
-        if (!mListeners.contains(listener)) {
-            mListeners.add(listener);
+        if (mListeners.add(listener)) {
             listener.onSupportedAudioMode(mSupportedModes);
             listener.onAudioMode(mAudioMode);
             listener.onMute(mMuted);
@@ -95,9 +114,7 @@ import java.util.List;
     }
 
     public void removeListener(AudioModeListener listener) {
-        if (mListeners.contains(listener)) {
-            mListeners.remove(listener);
-        }
+        mListeners.remove(listener);
     }
 
     public int getSupportedModes() {
@@ -112,6 +129,14 @@ import java.util.List;
         return mMuted;
     }
 
+    public void dump(PrintWriter pw) {
+        pw.println("AudioModeProvider:");
+        pw.println("  audioMode: " + mAudioMode);
+        pw.println("  muted: " + mMuted);
+        pw.println("  supportedModes: " + mSupportedModes);
+        mListeners.dump(pw);
+    }
+
     /* package */ interface AudioModeListener {
         void onAudioMode(int newMode);
         void onMute(boolean muted);
@@ -186,6 +186,9 @@ public final class Call {
     private final List<String> mChildCallIds = new ArrayList<>();
 
     private InCallVideoCallListener mVideoCallListener;
+    // The video call the device orientation was last sent to, and the orientation sent.
+    private VideoCall mOrientedVideoCall;
+    private int mSentDeviceOrientation;
 
     public Call(android.telecom.Call telecommCall) {
         mTelecommCall = telecommCall;
@@ -354,6 +357,24 @@ public final class Call {
         return mTelecommCall.getVideoCall();
     }
 
+    /**
+     * Tells the video call the device orientation, unless it has already been told.
+     *
+     * @param rotation The device rotation, in degrees.
+     * @return {@code True} if the orientation was sent to the video call.
+     */
+    public boolean updateVideoCallDeviceOrientation(int rotation) {
+        final VideoCall videoCall = getVideoCall();
+        if (videoCall == null
+                || (videoCall == mOrientedVideoCall && rotation == mSentDeviceOrientation)) {
+            return false;
+        }
+        videoCall.setDeviceOrientation(rotation);
+        mOrientedVideoCall = videoCall;
+        mSentDeviceOrientation = rotation;
+        return true;
+    }
+
     public List<String> getChildCallIds() {
         return mChildCallIds;
     }
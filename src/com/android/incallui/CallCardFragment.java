@@ -32,7 +32,6 @@ import android.telecom.DisconnectCause;
 import android.telecom.VideoProfile;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
-import android.text.format.DateUtils;
 import android.view.Display;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -43,6 +42,7 @@ import android.view.ViewPropertyAnimator;
 import android.view.ViewTreeObserver;
 import android.view.ViewTreeObserver.OnGlobalLayoutListener;
 import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityManager;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.ImageButton;
@@ -83,6 +83,10 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
     private View mCallNumberAndLabel;
     private ImageView mPhoto;
     private TextView mElapsedTime;
+    private final InCallDateUtils.ElapsedTimeFormatter mElapsedTimeFormatter =
+            new InCallDateUtils.ElapsedTimeFormatter();
+    // The elapsed time currently shown, in seconds, or -1 if none has been set.
+    private long mElapsedSeconds = -1;
     private Drawable mPrimaryPhotoDrawable;
 
     // Container view that houses the entire primary call card, including the call buttons
@@ -617,11 +621,24 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
             if (mElapsedTime.getVisibility() != View.VISIBLE) {
                 AnimUtils.fadeIn(mElapsedTime, AnimUtils.DEFAULT_DURATION);
             }
-            String callTimeElapsed = DateUtils.formatElapsedTime(duration / 1000);
-            String durationDescription = InCallDateUtils.formatDetailedDuration(duration);
-            mElapsedTime.setText(callTimeElapsed);
-            mElapsedTime.setContentDescription(durationDescription);
+            final long elapsedSeconds = duration / 1000;
+            if (elapsedSeconds == mElapsedSeconds) {
+                return;
+            }
+            mElapsedSeconds = elapsedSeconds;
+            final int length = mElapsedTimeFormatter.format(
+                    mElapsedTime.getResources(), elapsedSeconds);
+            // TextView keeps a reference to the buffer, which is fine since it is only ever
+            // rewritten right before it is handed to setText() again.
+            mElapsedTime.setText(mElapsedTimeFormatter.getBuffer(), 0, length);
+            final AccessibilityManager am = (AccessibilityManager)
+                    mElapsedTime.getContext().getSystemService(Context.ACCESSIBILITY_SERVICE);
+            if (am.isEnabled()) {
+                mElapsedTime.setContentDescription(
+                        InCallDateUtils.formatDetailedDuration(duration));
+            }
         } else {
+            mElapsedSeconds = -1;
             // hide() animation has no effect if it is already hidden.
             AnimUtils.fadeOut(mElapsedTime, AnimUtils.DEFAULT_DURATION);
         }
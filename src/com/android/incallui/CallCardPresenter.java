@@ -58,13 +58,17 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         InCallEventListener {
 
     private static final String TAG = CallCardPresenter.class.getSimpleName();
-    private static final long CALL_TIME_UPDATE_INTERVAL_MS = 1000;
 
     private Call mPrimary;
     private Call mSecondary;
     private ContactCacheEntry mPrimaryContactInfo;
     private ContactCacheEntry mSecondaryContactInfo;
-    private CallTimer mCallTimer;
+    private final CallClock.Subscriber mCallTimeSubscriber = new CallClock.Subscriber() {
+        @Override
+        public void onCallClockTick() {
+            updateCallTime();
+        }
+    };
 
     private Context mContext;
 
@@ -95,16 +99,6 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
 
     }
 
-    public CallCardPresenter() {
-        // create the call timer
-        mCallTimer = new CallTimer(new Runnable() {
-            @Override
-            public void run() {
-                updateCallTime();
-            }
-        });
-    }
-
     public void init(Context context, Call call) {
         mContext = Preconditions.checkNotNull(context);
 
@@ -146,6 +140,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         InCallPresenter.getInstance().removeIncomingCallListener(this);
         InCallPresenter.getInstance().removeDetailsListener(this);
         InCallPresenter.getInstance().removeInCallEventListener(this);
+        CallClock.getInstance().unsubscribe(mCallTimeSubscriber);
 
         mPrimary = null;
         mPrimaryContactInfo = null;
@@ -223,10 +218,10 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         // Start/stop timers.
         if (isPrimaryCallActive()) {
             Log.d(this, "Starting the calltime timer");
-            mCallTimer.start(CALL_TIME_UPDATE_INTERVAL_MS);
+            CallClock.getInstance().subscribe(mCallTimeSubscriber);
         } else {
             Log.d(this, "Canceling the calltime timer");
-            mCallTimer.cancel();
+            CallClock.getInstance().unsubscribe(mCallTimeSubscriber);
             ui.setPrimaryCallElapsedTime(false, 0);
         }
 
@@ -365,10 +360,10 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         final CallCardUi ui = getUi();
 
         if (ui == null) {
-            mCallTimer.cancel();
+            CallClock.getInstance().unsubscribe(mCallTimeSubscriber);
         } else if (!isPrimaryCallActive()) {
             ui.setPrimaryCallElapsedTime(false, 0);
-            mCallTimer.cancel();
+            CallClock.getInstance().unsubscribe(mCallTimeSubscriber);
         } else {
             final long callStart = mPrimary.getConnectTimeMillis();
             final long duration = System.currentTimeMillis() - callStart;
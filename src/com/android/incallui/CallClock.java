@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Display;
+
+import com.android.incallui.InCallPresenter.InCallUiListener;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A single clock for everything that shows elapsed call time. It ticks once a second, on wall
+ * clock second boundaries, so all subscribers update together with one wakeup.
+ *
+ * The clock only runs while it has subscribers, the in-call UI is in the foreground and the
+ * display is on; the display goes off when the proximity sensor blanks the screen. Subscribers
+ * are ticked straight away when it resumes. Must be used on the main thread.
+ */
+public class CallClock implements InCallUiListener {
+
+    public interface Subscriber {
+        void onCallClockTick();
+    }
+
+    private static final long TICK_INTERVAL_MS = 1000;
+
+    private static CallClock sInstance;
+
+    private final CopyOnWriteArrayList<Subscriber> mSubscribers =
+            new CopyOnWriteArrayList<Subscriber>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private DisplayManager mDisplayManager;
+    private boolean mUiShowing;
+    private boolean mDisplayOn = true;
+    private boolean mRunning;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+            scheduleTick();
+        }
+    };
+
+    private final DisplayManager.DisplayListener mDisplayListener =
+            new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY) {
+                updateDisplayState();
+            }
+        }
+    };
+
+    public static synchronized CallClock getInstance() {
+        if (sInstance == null) {
+            sInstance = new CallClock();
+        }
+        return sInstance;
+    }
+
+    private CallClock() {
+    }
+
+    public void setUp(Context context) {
+        if (mDisplayManager == null) {
+            mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+            mDisplayManager.registerDisplayListener(mDisplayListener, mHandler);
+            updateDisplayState();
+        }
+    }
+
+    public void tearDown() {
+        if (mDisplayManager != null) {
+            mDisplayManager.unregisterDisplayListener(mDisplayListener);
+            mDisplayManager = null;
+        }
+        mUiShowing = false;
+        mDisplayOn = true;
+        updateRunning();
+    }
+
+    /**
+     * Adds a subscriber and ticks it right away, so it can show the current time.
+     */
+    public void subscribe(Subscriber subscriber) {
+        if (mSubscribers.addIfAbsent(subscriber)) {
+            updateRunning();
+        }
+        subscriber.onCallClockTick();
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        if (mSubscribers.remove(subscriber)) {
+            updateRunning();
+        }
+    }
+
+    @Override
+    public void onUiShowing(boolean showing) {
+        mUiShowing = showing;
+        updateRunning();
+    }
+
+    private void updateDisplayState() {
+        final Display display = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        mDisplayOn = display == null || display.getState() != Display.STATE_OFF;
+        updateRunning();
+    }
+
+    private void updateRunning() {
+        final boolean shouldRun = mUiShowing && mDisplayOn && !mSubscribers.isEmpty();
+        if (shouldRun == mRunning) {
+            return;
+        }
+        mRunning = shouldRun;
+        mHandler.removeCallbacks(mTick);
+        if (mRunning) {
+            Log.d(this, "Resuming call clock");
+            // Catch up on whatever was missed while suspended.
+            tick();
+            scheduleTick();
+        } else {
+            Log.d(this, "Suspending call clock");
+        }
+    }
+
+    private void tick() {
+        for (Subscriber subscriber : mSubscribers) {
+            subscriber.onCallClockTick();
+        }
+    }
+
+    private void scheduleTick() {
+        if (!mRunning) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        mHandler.postDelayed(mTick, TICK_INTERVAL_MS - now % TICK_INTERVAL_MS);
+    }
+}
@@ -19,17 +19,20 @@ package com.android.incallui;
 import com.google.common.collect.Maps;
 import com.google.common.base.Preconditions;
 
+import com.android.incallui.ListenerRegistry.Event1;
+
 import android.os.Handler;
 import android.os.Message;
 import android.telecom.DisconnectCause;
 import android.telecom.Phone;
+import android.util.SparseArray;
+import android.view.Choreographer;
 
-import java.util.Collections;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Maintains the list of active calls and notifies interested classes of changes to the call list
@@ -43,21 +46,91 @@ public class CallList implements InCallPhoneListener {
     private static final int DISCONNECTED_CALL_LONG_TIMEOUT_MS = 5000;
 
     private static final int EVENT_DISCONNECTED_TIMEOUT = 1;
+    private static final int EVENT_DEVICE_ROTATION = 2;
+
+    // How long the device has to stay in one rotation before the video providers are told. Each
+    // rotation is a binder call per video call, and the provider may reconfigure the camera.
+    private static final int DEVICE_ROTATION_DEBOUNCE_MS = 200;
 
     private static CallList sInstance = new CallList();
 
+    private static final Event1<Listener, Call> ON_INCOMING_CALL =
+            new Event1<Listener, Call>() {
+        @Override
+        public void dispatch(Listener listener, Call call) {
+            listener.onIncomingCall(call);
+        }
+    };
+
+    private static final Event1<Listener, CallList> ON_CALL_LIST_CHANGE =
+            new Event1<Listener, CallList>() {
+        @Override
+        public void dispatch(Listener listener, CallList callList) {
+            listener.onCallListChange(callList);
+        }
+    };
+
+    private static final Event1<Listener, Call> ON_DISCONNECT =
+            new Event1<Listener, Call>() {
+        @Override
+        public void dispatch(Listener listener, Call call) {
+            listener.onDisconnect(call);
+        }
+    };
+
+    private static final Event1<CallUpdateListener, Call> ON_CALL_CHANGED =
+            new Event1<CallUpdateListener, Call>() {
+        @Override
+        public void dispatch(CallUpdateListener listener, Call call) {
+            listener.onCallChanged(call);
+        }
+    };
+
     private final HashMap<String, Call> mCallById = new HashMap<>();
     private final HashMap<android.telecom.Call, Call> mCallByTelecommCall = new HashMap<>();
     private final HashMap<String, List<String>> mCallTextReponsesMap = Maps.newHashMap();
     /**
-     * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
-     * load factor before resizing, 1 means we only expect a single thread to
-     * access the map so make only a single shard
+     * Calls in {@link #mCallById} bucketed by the state they were in when last updated in the map.
+     * Each bucket is ordered by connect time so that the state accessors do not need to scan every
+     * call.
+     */
+    private final SparseArray<ArrayList<Call>> mCallsByState = new SparseArray<>();
+    /** The state bucket in {@link #mCallsByState} each call id is currently filed under. */
+    private final HashMap<String, Integer> mIndexedStateById = new HashMap<>();
+    private final ListenerRegistry<Listener> mListeners =
+            new ListenerRegistry<Listener>("listeners", true);
+    private final HashMap<String, ListenerRegistry<CallUpdateListener>> mCallUpdateListenerMap =
+            Maps.newHashMap();
+
+    /**
+     * Calls which have been updated since the last flush, keyed by call id. Listeners are told
+     * about each of these once, followed by a single {@link Listener#onCallListChange}, on the
+     * next frame.
      */
-    private final Set<Listener> mListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<Listener, Boolean>(8, 0.9f, 1));
-    private final HashMap<String, List<CallUpdateListener>> mCallUpdateListenerMap = Maps
-            .newHashMap();
+    private final LinkedHashMap<String, Call> mPendingUpdates = new LinkedHashMap<>();
+    /** The updates being dispatched; listeners may update calls while being notified. */
+    private final ArrayList<Call> mDispatchingUpdates = new ArrayList<>();
+    private boolean mDispatchingPendingUpdates = false;
+    private boolean mFlushScheduled = false;
+
+    private int mReceivedUpdateCount = 0;
+    private int mCoalescedUpdateCount = 0;
+    private int mFlushedBatchCount = 0;
+
+    private int mReceivedRotationCount = 0;
+    private int mDroppedRotationCount = 0;
+    private int mSentRotationCount = 0;
+
+    private final Choreographer.FrameCallback mFlushCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFlushScheduled = false;
+            if (dispatchPendingUpdates()) {
+                mFlushedBatchCount++;
+                notifyGenericListeners();
+            }
+        }
+    };
 
     private Phone mPhone;
 
@@ -112,6 +185,8 @@ public class CallList implements InCallPhoneListener {
      * Called when a single call disconnects.
      */
     public void onDisconnect(Call call) {
+        // Disconnects are not batched; deliver anything still pending first to preserve ordering.
+        flushPendingUpdates();
         if (updateCallInMap(call)) {
             Log.i(this, "onDisconnect: " + call);
             // notify those listening for changes on this specific change
@@ -125,30 +200,49 @@ public class CallList implements InCallPhoneListener {
      * Called when a single call has changed.
      */
     public void onIncoming(Call call, List<String> textMessages) {
+        // Incoming calls are not batched so that the incoming call UI comes up as soon as possible.
+        flushPendingUpdates();
         if (updateCallInMap(call)) {
             Log.i(this, "onIncoming - " + call);
         }
         updateCallTextMap(call, textMessages);
 
-        for (Listener listener : mListeners) {
-            listener.onIncomingCall(call);
-        }
+        mListeners.dispatch(ON_INCOMING_CALL, call);
     }
 
     /**
-     * Called when a single call has changed.
+     * Called when a single call has changed. The call map is updated immediately, but listeners
+     * are notified on the next frame so that bursts of updates (e.g. while merging a conference)
+     * result in a single {@link Listener#onCallListChange}.
      */
     public void onUpdate(Call call) {
         onUpdateCall(call);
-        notifyGenericListeners();
+
+        mReceivedUpdateCount++;
+        if (mFlushScheduled) {
+            mCoalescedUpdateCount++;
+        } else {
+            mFlushScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mFlushCallback);
+        }
+        mPendingUpdates.put(call.getId(), call);
+    }
+
+    /**
+     * Immediately notifies listeners of any call updates which are waiting for the next frame.
+     */
+    public void flushPendingUpdates() {
+        if (dispatchPendingUpdates()) {
+            mFlushedBatchCount++;
+            notifyGenericListeners();
+        }
     }
 
     public void notifyCallUpdateListeners(Call call) {
-        final List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(call.getId());
+        final ListenerRegistry<CallUpdateListener> listeners =
+                mCallUpdateListenerMap.get(call.getId());
         if (listeners != null) {
-            for (CallUpdateListener listener : listeners) {
-                listener.onCallChanged(call);
-            }
+            listeners.dispatch(ON_CALL_CHANGED, call);
         }
     }
 
@@ -159,9 +253,9 @@ public class CallList implements InCallPhoneListener {
      * @param listener The listener to add.
      */
     public void addCallUpdateListener(String callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
+        ListenerRegistry<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
         if (listeners == null) {
-            listeners = new CopyOnWriteArrayList<CallUpdateListener>();
+            listeners = new ListenerRegistry<CallUpdateListener>(callId, false);
             mCallUpdateListenerMap.put(callId, listeners);
         }
         listeners.add(listener);
@@ -174,7 +268,7 @@ public class CallList implements InCallPhoneListener {
      * @param listener The listener to remove.
      */
     public void removeCallUpdateListener(String callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
+        ListenerRegistry<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
         if (listeners != null) {
             listeners.remove(listener);
         }
@@ -335,24 +429,15 @@ public class CallList implements InCallPhoneListener {
     }
 
     /**
-     * Returns the [position]th call found in the call map with the specified state.
-     * TODO: Improve this logic to sort by call time.
+     * Returns the [position]th call with the specified state, ordered by connect time. Calls
+     * which have not connected yet are ordered after connected ones.
      */
     public Call getCallWithState(int state, int positionToFind) {
-        Call retval = null;
-        int position = 0;
-        for (Call call : mCallById.values()) {
-            if (call.getState() == state) {
-                if (position >= positionToFind) {
-                    retval = call;
-                    break;
-                } else {
-                    position++;
-                }
-            }
+        final ArrayList<Call> calls = mCallsByState.get(state);
+        if (calls == null || positionToFind < 0 || positionToFind >= calls.size()) {
+            return null;
         }
-
-        return retval;
+        return calls.get(positionToFind);
     }
 
     /**
@@ -382,12 +467,45 @@ public class CallList implements InCallPhoneListener {
      * @param call The call to update.
      */
     private void onUpdateCall(Call call) {
-        Log.d(this, "\t" + call);
+        Log.d(this, "\t", call);
         if (updateCallInMap(call)) {
             Log.i(this, "onUpdate - " + call);
         }
         updateCallTextMap(call, call.getCannedSmsResponses());
-        notifyCallUpdateListeners(call);
+    }
+
+    /**
+     * Cancels any scheduled flush and notifies the call update listeners of every pending call.
+     *
+     * @return true if there were pending updates.
+     */
+    private boolean dispatchPendingUpdates() {
+        if (mDispatchingPendingUpdates) {
+            // Called from a listener. Updates made meanwhile stay pending for the next frame.
+            return false;
+        }
+        if (mFlushScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mFlushCallback);
+            mFlushScheduled = false;
+        }
+        if (mPendingUpdates.isEmpty()) {
+            return false;
+        }
+
+        for (Call call : mPendingUpdates.values()) {
+            mDispatchingUpdates.add(call);
+        }
+        mPendingUpdates.clear();
+        mDispatchingPendingUpdates = true;
+        try {
+            for (int i = 0; i < mDispatchingUpdates.size(); i++) {
+                notifyCallUpdateListeners(mDispatchingUpdates.get(i));
+            }
+        } finally {
+            mDispatchingUpdates.clear();
+            mDispatchingPendingUpdates = false;
+        }
+        return true;
     }
 
     /**
@@ -395,15 +513,13 @@ public class CallList implements InCallPhoneListener {
      * It is up to the listeners to call back to determine what changed.
      */
     private void notifyGenericListeners() {
-        for (Listener listener : mListeners) {
-            listener.onCallListChange(this);
-        }
+        // Any updates still waiting for the next frame are covered by this notification.
+        dispatchPendingUpdates();
+        mListeners.dispatch(ON_CALL_LIST_CHANGE, this);
     }
 
     private void notifyListenersOfDisconnect(Call call) {
-        for (Listener listener : mListeners) {
-            listener.onDisconnect(call);
-        }
+        mListeners.dispatch(ON_DISCONNECT, call);
     }
 
     /**
@@ -427,21 +543,74 @@ public class CallList implements InCallPhoneListener {
 
                 mCallById.put(call.getId(), call);
                 mCallByTelecommCall.put(call.getTelecommCall(), call);
+                indexCallState(call);
                 updated = true;
             }
         } else if (!isCallDead(call)) {
             mCallById.put(call.getId(), call);
             mCallByTelecommCall.put(call.getTelecommCall(), call);
+            indexCallState(call);
             updated = true;
         } else if (mCallById.containsKey(call.getId())) {
             mCallById.remove(call.getId());
             mCallByTelecommCall.remove(call.getTelecommCall());
+            unindexCallState(call);
             updated = true;
         }
 
         return updated;
     }
 
+    /**
+     * Files the call under its current state in {@link #mCallsByState}, moving it out of the
+     * bucket for its previous state if necessary.
+     */
+    private void indexCallState(Call call) {
+        unindexCallState(call);
+
+        final int state = call.getState();
+        ArrayList<Call> calls = mCallsByState.get(state);
+        if (calls == null) {
+            calls = new ArrayList<>();
+            mCallsByState.put(state, calls);
+        }
+
+        // Buckets only ever hold a handful of calls, so a linear insertion keeps them sorted
+        // cheaply. Calls with equal connect times keep their insertion order.
+        final long connectTime = getSortableConnectTime(call);
+        int position = calls.size();
+        while (position > 0 && getSortableConnectTime(calls.get(position - 1)) > connectTime) {
+            position--;
+        }
+        calls.add(position, call);
+        mIndexedStateById.put(call.getId(), state);
+    }
+
+    /**
+     * Removes the call from whichever bucket of {@link #mCallsByState} it is filed under.
+     */
+    private void unindexCallState(Call call) {
+        final Integer oldState = mIndexedStateById.remove(call.getId());
+        if (oldState == null) {
+            return;
+        }
+        final ArrayList<Call> calls = mCallsByState.get(oldState);
+        if (calls == null) {
+            return;
+        }
+        for (int i = 0; i < calls.size(); i++) {
+            if (Call.areSame(calls.get(i), call)) {
+                calls.remove(i);
+                break;
+            }
+        }
+    }
+
+    private static long getSortableConnectTime(Call call) {
+        final long connectTime = call.getConnectTimeMillis();
+        return connectTime > 0 ? connectTime : Long.MAX_VALUE;
+    }
+
     private int getDelayForDisconnect(Call call) {
         Preconditions.checkState(call.getState() == Call.State.DISCONNECTED);
 
@@ -496,20 +665,48 @@ public class CallList implements InCallPhoneListener {
     }
 
     /**
-     * Notifies all video calls of a change in device orientation.
+     * Notifies all video calls of a change in device orientation, once the device has stayed in
+     * it for {@link #DEVICE_ROTATION_DEBOUNCE_MS}. Video calls which were already told about the
+     * rotation are skipped.
      *
      * @param rotation The new rotation angle (in degrees).
      */
     public void notifyCallsOfDeviceRotation(int rotation) {
+        mReceivedRotationCount++;
+        if (mHandler.hasMessages(EVENT_DEVICE_ROTATION)) {
+            // Superseded before it was sent.
+            mDroppedRotationCount++;
+            mHandler.removeMessages(EVENT_DEVICE_ROTATION);
+        }
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(EVENT_DEVICE_ROTATION, rotation, 0),
+                DEVICE_ROTATION_DEBOUNCE_MS);
+    }
+
+    private void sendDeviceRotation(int rotation) {
         for (Call call : mCallById.values()) {
-            if (call.getVideoCall() != null) {
-                call.getVideoCall().setDeviceOrientation(rotation);
+            if (call.updateVideoCallDeviceOrientation(rotation)) {
+                mSentRotationCount++;
             }
         }
     }
 
     /**
-     * Handles the timeout for destroying disconnected calls.
+     * Dumps the update batching and device rotation counters.
+     */
+    public void dump(PrintWriter pw) {
+        pw.println("CallList:");
+        pw.println("  calls: " + mCallById.size());
+        pw.println("  receivedUpdates: " + mReceivedUpdateCount);
+        pw.println("  coalescedUpdates: " + mCoalescedUpdateCount);
+        pw.println("  flushedBatches: " + mFlushedBatchCount);
+        pw.println("  receivedRotations: " + mReceivedRotationCount);
+        pw.println("  droppedRotations: " + mDroppedRotationCount);
+        pw.println("  sentRotations: " + mSentRotationCount);
+        mListeners.dump(pw);
+    }
+
+    /**
+     * Handles the timeout for destroying disconnected calls, and debounced device rotations.
      */
     private Handler mHandler = new Handler() {
         @Override
@@ -519,6 +716,9 @@ public class CallList implements InCallPhoneListener {
                     Log.d(this, "EVENT_DISCONNECTED_TIMEOUT ", msg.obj);
                     finishDisconnectedCall((Call) msg.obj);
                     break;
+                case EVENT_DEVICE_ROTATION:
+                    sendDeviceRotation(msg.arg1);
+                    break;
                 default:
                     Log.wtf(this, "Message not expected: " + msg.what);
                     break;
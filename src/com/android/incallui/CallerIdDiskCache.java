@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of caller-ID results keyed by normalized phone number. Lets
+ * {@link ContactInfoCache} show the name, label and location of a repeat caller on the first
+ * frame of an incoming call while the contacts provider and reverse lookup revalidate the entry.
+ *
+ * The entries are kept in a small SQLite database. It is read into an in-memory LRU mirror on a
+ * worker thread when the cache is created, so lookups on the UI thread never touch the disk.
+ * Writes are applied to the mirror immediately and persisted on the worker thread. The mirror
+ * and the counters are only used on the UI thread; the loaded rows are merged into it there.
+ */
+public class CallerIdDiskCache {
+
+    private static final String TAG = CallerIdDiskCache.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "caller_id_cache.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final int MAX_ENTRIES = 256;
+    private static final long MAX_AGE_MS = TimeUnit.DAYS.toMillis(30);
+
+    private static final int MSG_LOAD = 1;
+    private static final int MSG_PUT = 2;
+    private static final int MSG_REMOVE = 3;
+    private static final int MSG_TOUCH = 4;
+
+    private static final class Columns {
+        static final String NUMBER = "number";
+        static final String NAME = "name";
+        static final String DISPLAY_NUMBER = "display_number";
+        static final String LABEL = "label";
+        static final String LOCATION = "location";
+        static final String IS_SIP_CALL = "is_sip_call";
+        static final String DISPLAY_PHOTO_URI = "display_photo_uri";
+        static final String LOOKUP_URI = "lookup_uri";
+        static final String LOOKUP_KEY = "lookup_key";
+        static final String LAST_UPDATED = "last_updated";
+        static final String LAST_ACCESSED = "last_accessed";
+    }
+
+    private static final String TABLE = "caller_id";
+
+    private static final String[] PROJECTION = new String[] {
+        Columns.NUMBER,
+        Columns.NAME,
+        Columns.DISPLAY_NUMBER,
+        Columns.LABEL,
+        Columns.LOCATION,
+        Columns.IS_SIP_CALL,
+        Columns.DISPLAY_PHOTO_URI,
+        Columns.LOOKUP_URI,
+        Columns.LOOKUP_KEY,
+        Columns.LAST_UPDATED,
+    };
+
+    /**
+     * A cached caller-ID result. Immutable once created so it can be handed between the UI and
+     * worker threads.
+     */
+    private static final class Entry {
+        final String name;
+        final String number;
+        final String label;
+        final String location;
+        final boolean isSipCall;
+        final Uri displayPhotoUri;
+        final Uri lookupUri;
+        final String lookupKey;
+        final long lastUpdated;
+
+        Entry(ContactCacheEntry cce, long lastUpdated) {
+            this.name = cce.name;
+            this.number = cce.number;
+            this.label = cce.label;
+            this.location = cce.location;
+            this.isSipCall = cce.isSipCall;
+            this.displayPhotoUri = cce.displayPhotoUri;
+            this.lookupUri = cce.lookupUri;
+            this.lookupKey = cce.lookupKey;
+            this.lastUpdated = lastUpdated;
+        }
+
+        Entry(Cursor cursor) {
+            this.name = cursor.getString(1);
+            this.number = cursor.getString(2);
+            this.label = cursor.getString(3);
+            this.location = cursor.getString(4);
+            this.isSipCall = cursor.getInt(5) != 0;
+            this.displayPhotoUri = parseUri(cursor.getString(6));
+            this.lookupUri = parseUri(cursor.getString(7));
+            this.lookupKey = cursor.getString(8);
+            this.lastUpdated = cursor.getLong(9);
+        }
+
+        ContactCacheEntry toContactCacheEntry() {
+            final ContactCacheEntry cce = new ContactCacheEntry();
+            cce.name = name;
+            cce.number = number;
+            cce.label = label;
+            cce.location = location;
+            cce.isSipCall = isSipCall;
+            cce.displayPhotoUri = displayPhotoUri;
+            cce.lookupUri = lookupUri;
+            cce.lookupKey = lookupKey;
+            return cce;
+        }
+
+        ContentValues toContentValues(String key, long lastAccessed) {
+            final ContentValues values = new ContentValues();
+            values.put(Columns.NUMBER, key);
+            values.put(Columns.NAME, name);
+            values.put(Columns.DISPLAY_NUMBER, number);
+            values.put(Columns.LABEL, label);
+            values.put(Columns.LOCATION, location);
+            values.put(Columns.IS_SIP_CALL, isSipCall ? 1 : 0);
+            values.put(Columns.DISPLAY_PHOTO_URI,
+                    displayPhotoUri == null ? null : displayPhotoUri.toString());
+            values.put(Columns.LOOKUP_URI, lookupUri == null ? null : lookupUri.toString());
+            values.put(Columns.LOOKUP_KEY, lookupKey);
+            values.put(Columns.LAST_UPDATED, lastUpdated);
+            values.put(Columns.LAST_ACCESSED, lastAccessed);
+            return values;
+        }
+
+        private static Uri parseUri(String uri) {
+            return uri == null ? null : Uri.parse(uri);
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + Columns.NUMBER + " TEXT PRIMARY KEY,"
+                    + Columns.NAME + " TEXT,"
+                    + Columns.DISPLAY_NUMBER + " TEXT,"
+                    + Columns.LABEL + " TEXT,"
+                    + Columns.LOCATION + " TEXT,"
+                    + Columns.IS_SIP_CALL + " INTEGER NOT NULL DEFAULT 0,"
+                    + Columns.DISPLAY_PHOTO_URI + " TEXT,"
+                    + Columns.LOOKUP_URI + " TEXT,"
+                    + Columns.LOOKUP_KEY + " TEXT,"
+                    + Columns.LAST_UPDATED + " INTEGER NOT NULL,"
+                    + Columns.LAST_ACCESSED + " INTEGER NOT NULL);");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // This is only a cache; start over rather than migrating.
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+            onCreate(db);
+        }
+    }
+
+    /**
+     * In-memory mirror of the database, ordered by access. Evicted entries are deleted from disk
+     * as well.
+     */
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_ENTRIES) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+            if (evicted) {
+                mWorkerHandler.obtainMessage(MSG_REMOVE, key).sendToTarget();
+            }
+        }
+    };
+
+    private final DatabaseHelper mDatabaseHelper;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private boolean mLoaded = false;
+    /**
+     * Numbers written or removed before the database was loaded. Their rows on disk are older
+     * than the mirror, so they are skipped when the loaded rows are merged.
+     */
+    private final HashSet<String> mChangedBeforeLoad = new HashSet<String>();
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mStaleCount = 0;
+
+    public CallerIdDiskCache(Context context) {
+        mDatabaseHelper = new DatabaseHelper(context);
+
+        final HandlerThread thread = new HandlerThread("CallerIdDiskCache");
+        thread.start();
+        mWorkerHandler = new WorkerHandler(thread);
+        mWorkerHandler.sendEmptyMessage(MSG_LOAD);
+    }
+
+    /**
+     * Returns the cached caller-ID result for the number, or null if there is none or it has
+     * expired. Safe to call from the UI thread.
+     */
+    public ContactCacheEntry get(String number) {
+        final String key = getNormalizedNumber(number);
+        if (key == null) {
+            return null;
+        }
+
+        final Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.lastUpdated > MAX_AGE_MS) {
+            Log.d(TAG, "Dropping stale entry for " + Log.pii(number));
+            mStaleCount++;
+            remove(number);
+            return null;
+        }
+
+        mHitCount++;
+        mWorkerHandler.obtainMessage(MSG_TOUCH, key).sendToTarget();
+        return entry.toContactCacheEntry();
+    }
+
+    /**
+     * Saves a caller-ID result for the number. The entry's photo is not persisted; only its
+     * display photo uri is.
+     */
+    public void put(String number, ContactCacheEntry cce) {
+        final String key = getNormalizedNumber(number);
+        if (key == null || cce == null || TextUtils.isEmpty(cce.name)) {
+            return;
+        }
+
+        final Entry entry = new Entry(cce, System.currentTimeMillis());
+        if (!mLoaded) {
+            mChangedBeforeLoad.add(key);
+        }
+        mEntries.put(key, entry);
+        mWorkerHandler.obtainMessage(MSG_PUT, new Object[] { key, entry }).sendToTarget();
+    }
+
+    /**
+     * Forgets any caller-ID result for the number, e.g. because it no longer matches a contact.
+     */
+    public void remove(String number) {
+        final String key = getNormalizedNumber(number);
+        if (key == null) {
+            return;
+        }
+        if (!mLoaded) {
+            mChangedBeforeLoad.add(key);
+        }
+        mEntries.remove(key);
+        mWorkerHandler.obtainMessage(MSG_REMOVE, key).sendToTarget();
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("CallerIdDiskCache:");
+        pw.println("  loaded: " + mLoaded);
+        pw.println("  entries: " + mEntries.size() + "/" + mEntries.maxSize());
+        pw.println("  hits: " + mHitCount);
+        pw.println("  misses: " + mMissCount);
+        pw.println("  stale: " + mStaleCount);
+    }
+
+    /**
+     * Adds the rows read from the database to the mirror, on the UI thread.
+     *
+     * @param keys The numbers of the rows, least recently used first.
+     */
+    private void onLoaded(ArrayList<String> keys, ArrayList<Entry> entries) {
+        for (int i = 0; i < keys.size(); i++) {
+            final String key = keys.get(i);
+            if (!mChangedBeforeLoad.contains(key)) {
+                mEntries.put(key, entries.get(i));
+            }
+        }
+        mChangedBeforeLoad.clear();
+        mLoaded = true;
+        Log.d(TAG, "Loaded " + keys.size() + " caller id cache entries");
+    }
+
+    /**
+     * Normalizes the number so that differently formatted versions of it share an entry. SIP
+     * addresses are used as is.
+     */
+    static String getNormalizedNumber(String number) {
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        if (PhoneNumberHelper.isUriNumber(number)) {
+            return number;
+        }
+        final String normalized = PhoneNumberUtils.normalizeNumber(number);
+        return TextUtils.isEmpty(normalized) ? null : normalized;
+    }
+
+    private class WorkerHandler extends Handler {
+        public WorkerHandler(HandlerThread thread) {
+            super(thread.getLooper());
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            try {
+                switch (msg.what) {
+                    case MSG_LOAD:
+                        load();
+                        break;
+                    case MSG_PUT:
+                        final Object[] args = (Object[]) msg.obj;
+                        final String key = (String) args[0];
+                        final Entry entry = (Entry) args[1];
+                        mDatabaseHelper.getWritableDatabase().insertWithOnConflict(TABLE, null,
+                                entry.toContentValues(key, System.currentTimeMillis()),
+                                SQLiteDatabase.CONFLICT_REPLACE);
+                        break;
+                    case MSG_TOUCH:
+                        final ContentValues values = new ContentValues();
+                        values.put(Columns.LAST_ACCESSED, System.currentTimeMillis());
+                        mDatabaseHelper.getWritableDatabase().update(TABLE, values,
+                                Columns.NUMBER + "=?", new String[] { (String) msg.obj });
+                        break;
+                    case MSG_REMOVE:
+                        mDatabaseHelper.getWritableDatabase().delete(TABLE,
+                                Columns.NUMBER + "=?", new String[] { (String) msg.obj });
+                        break;
+                    default:
+                }
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Error accessing caller id cache", e);
+            }
+        }
+
+        private void load() {
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            db.delete(TABLE, Columns.LAST_UPDATED + "<?", new String[] {
+                    String.valueOf(System.currentTimeMillis() - MAX_AGE_MS) });
+
+            // Load the least recently used entries first so that the most recently used ones
+            // end up at the head of the LRU mirror.
+            final Cursor cursor = db.query(TABLE, PROJECTION, null, null, null, null,
+                    Columns.LAST_ACCESSED + " ASC");
+            final ArrayList<String> keys = new ArrayList<String>();
+            final ArrayList<Entry> entries = new ArrayList<Entry>();
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        keys.add(cursor.getString(0));
+                        entries.add(new Entry(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onLoaded(keys, entries);
+                }
+            });
+        }
+    }
+}
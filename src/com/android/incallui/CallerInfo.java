@@ -23,6 +23,7 @@ import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
@@ -30,6 +31,7 @@ import android.provider.ContactsContract.PhoneLookup;
 import android.provider.ContactsContract.RawContacts;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.util.LruCache;
 
 import com.google.i18n.phonenumbers.geocoding.PhoneNumberOfflineGeocoder;
 import com.google.i18n.phonenumbers.NumberParseException;
@@ -46,6 +48,19 @@ import java.util.Locale;
 public class CallerInfo {
     private static final String TAG = "CallerInfo";
 
+    private static final int MAX_GEO_DESCRIPTION_CACHE_SIZE = 64;
+
+    /** Marks a number which has no geo description in {@link #sGeoDescriptionCache}. */
+    private static final String NO_GEO_DESCRIPTION = "";
+
+    /**
+     * Geo descriptions keyed by number, country and locale, so that repeated lookups do not parse
+     * the number and query the geocoder again. Lookups run on several threads; LruCache is
+     * thread safe.
+     */
+    private static final LruCache<String, String> sGeoDescriptionCache =
+            new LruCache<>(MAX_GEO_DESCRIPTION_CACHE_SIZE);
+
     /**
      * Please note that, any one of these member variables can be null,
      * and any accesses to them should be prepared to handle such a case.
@@ -477,11 +492,24 @@ public class CallerInfo {
             return null;
         }
 
+        Locale locale = context.getResources().getConfiguration().locale;
+        String countryIso = TelephonyManagerUtils.getCurrentCountryIso(context, locale);
+
+        final String key = number + "|" + countryIso + "|" + locale;
+        String description = sGeoDescriptionCache.get(key);
+        if (description == null) {
+            description = lookUpGeoDescription(number, countryIso, locale);
+            sGeoDescriptionCache.put(key, description == null ? NO_GEO_DESCRIPTION : description);
+        } else {
+            Log.v(TAG, "- cached description: '" + description + "'");
+        }
+        return TextUtils.isEmpty(description) ? null : description;
+    }
+
+    private static String lookUpGeoDescription(String number, String countryIso, Locale locale) {
         PhoneNumberUtil util = PhoneNumberUtil.getInstance();
         PhoneNumberOfflineGeocoder geocoder = PhoneNumberOfflineGeocoder.getInstance();
 
-        Locale locale = context.getResources().getConfiguration().locale;
-        String countryIso = TelephonyManagerUtils.getCurrentCountryIso(context, locale);
         PhoneNumber pn = null;
         try {
             Log.v(TAG, "parsing '" + number
@@ -502,6 +530,36 @@ public class CallerInfo {
         return null;
     }
 
+    /**
+     * Loads the phone number metadata and the geocoder prefix data for the device's country in
+     * the background, so that the first incoming call does not pay for it.
+     */
+    public static void warmUpGeoDescriptions(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Locale locale = appContext.getResources().getConfiguration().locale;
+                final String countryIso =
+                        TelephonyManagerUtils.getCurrentCountryIso(appContext, locale);
+                if (TextUtils.isEmpty(countryIso)) {
+                    return;
+                }
+
+                final PhoneNumberUtil util = PhoneNumberUtil.getInstance();
+                final PhoneNumber example =
+                        util.getExampleNumber(countryIso.toUpperCase(Locale.US));
+                if (example != null) {
+                    // The geocoder loads the prefix data for the number's country code and
+                    // language the first time it is asked about it.
+                    PhoneNumberOfflineGeocoder.getInstance()
+                            .getDescriptionForNumber(example, locale);
+                    Log.d(TAG, "Warmed up geocoder for " + countryIso);
+                }
+            }
+        });
+    }
+
     /**
      * @return a string debug representation of this instance.
      */
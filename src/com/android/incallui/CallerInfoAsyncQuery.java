@@ -16,15 +16,16 @@
 
 package com.android.incallui;
 
-import android.content.AsyncQueryHandler;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
-import android.provider.ContactsContract;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
@@ -32,11 +33,31 @@ import android.text.TextUtils;
 import com.android.contacts.common.util.PhoneNumberHelper;
 import com.android.contacts.common.util.TelephonyManagerUtils;
 
-import java.util.Arrays;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Helper class to make it easier to run asynchronous caller-id lookup queries.
+ *
+ * Lookups run on a small pool of worker threads rather than a single query looper, so that the
+ * participants of a conference or several waiting calls do not wait in line behind each other.
+ * Concurrent lookups for the same number share a single query, and lookups for calls which no
+ * longer need them can be cancelled with {@link #cancelQueries(Object)}.
+ *
+ * Lookups started between {@link #beginBatch()} and {@link #endBatch(Context)}, such as those for
+ * the participants of a conference, are resolved together with one query of the phone numbers
+ * table per {@link #MAX_BATCH_SIZE} numbers. Numbers which the batch query does not match still
+ * get their own {@link PhoneLookup} query, which matches numbers more loosely.
+ *
+ * All methods must be called from the main thread, and listeners are notified on it.
  * @see CallerInfo
  *
  */
@@ -45,12 +66,42 @@ public class CallerInfoAsyncQuery {
     private static final String LOG_TAG = "CallerInfoAsyncQuery";
 
     private static final int EVENT_NEW_QUERY = 1;
-    private static final int EVENT_ADD_LISTENER = 2;
-    private static final int EVENT_END_OF_QUEUE = 3;
     private static final int EVENT_EMERGENCY_NUMBER = 4;
     private static final int EVENT_VOICEMAIL_NUMBER = 5;
 
-    private CallerInfoAsyncQueryHandler mHandler;
+    /** Maximum number of lookups which run at once. */
+    private static final int MAX_LOOKUP_THREADS = 3;
+    private static final long LOOKUP_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /** Maximum number of numbers resolved by one batch query; SQLite limits bind arguments. */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final String[] BATCH_PROJECTION = new String[] {
+            Phone.CONTACT_ID,
+            Phone.DISPLAY_NAME,
+            Phone.NUMBER,
+            Phone.NORMALIZED_NUMBER,
+            Phone.TYPE,
+            Phone.LABEL,
+            Phone.LOOKUP_KEY,
+            Phone.PHOTO_URI,
+            Phone.CUSTOM_RINGTONE,
+            Phone.SEND_TO_VOICEMAIL,
+    };
+
+    /** The {@link PhoneLookup} columns matching {@link #BATCH_PROJECTION}. */
+    private static final String[] BATCH_RESULT_COLUMNS = new String[] {
+            PhoneLookup._ID,
+            PhoneLookup.DISPLAY_NAME,
+            PhoneLookup.NUMBER,
+            PhoneLookup.NORMALIZED_NUMBER,
+            PhoneLookup.TYPE,
+            PhoneLookup.LABEL,
+            PhoneLookup.LOOKUP_KEY,
+            PhoneLookup.PHOTO_URI,
+            PhoneLookup.CUSTOM_RINGTONE,
+            PhoneLookup.SEND_TO_VOICEMAIL,
+    };
 
     // If the CallerInfo query finds no contacts, should we use the
     // PhoneNumberOfflineGeocoder to look up a "geo description"?
@@ -58,8 +109,52 @@ public class CallerInfoAsyncQuery {
     // configured on a per-product basis.)
     private static final boolean ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION = true;
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(MAX_LOOKUP_THREADS, MAX_LOOKUP_THREADS,
+                LOOKUP_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread("CallerInfoLookup #" + mCount.getAndIncrement()) {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        };
+                    }
+                });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Lookups which have been started but not yet delivered, keyed by event and number. */
+    private static final HashMap<String, Lookup> sInFlightLookups = new HashMap<>();
+
+    /** Nesting depth of {@link #beginBatch()} calls. */
+    private static int sBatchDepth;
+    /** Lookups started inside the current batch, run once it ends. */
+    private static final ArrayList<Lookup> sPendingBatch = new ArrayList<>();
+
+    private static int sLookupCount;
+    private static int sCompletedCount;
+    private static int sDedupedCount;
+    private static int sCancelledCount;
+    private static int sMaxQueueDepth;
+    private static long sTotalQueueWaitMs;
+    private static long sTotalLookupMs;
+    private static long sMaxLookupMs;
+    private static int sBatchCount;
+    private static int sBatchedLookupCount;
+    private static int sBatchMatchCount;
+
     /**
-     * Interface for a CallerInfoAsyncQueryHandler result return.
+     * Interface for a CallerInfoAsyncQuery result return.
      */
     public interface OnQueryCompleteListener {
         /**
@@ -68,19 +163,6 @@ public class CallerInfoAsyncQuery {
         public void onQueryComplete(int token, Object cookie, CallerInfo ci);
     }
 
-
-    /**
-     * Wrap the cookie from the WorkerArgs with additional information needed by our
-     * classes.
-     */
-    private static final class CookieWrapper {
-        public OnQueryCompleteListener listener;
-        public Object cookie;
-        public int event;
-        public String number;
-    }
-
-
     /**
      * Simple exception used to communicate problems with the query pool.
      */
@@ -91,237 +173,313 @@ public class CallerInfoAsyncQuery {
     }
 
     /**
-     * Our own implementation of the AsyncQueryHandler.
+     * A caller waiting for the result of a {@link Lookup}.
+     */
+    private static final class Waiter {
+        public final int token;
+        public final OnQueryCompleteListener listener;
+        public final Object cookie;
+
+        public Waiter(int token, OnQueryCompleteListener listener, Object cookie) {
+            this.token = token;
+            this.listener = listener;
+            this.cookie = cookie;
+        }
+    }
+
+    /**
+     * A single caller-id lookup, shared by every caller which asks for the same number while it
+     * is in flight. The waiters are only touched on the main thread; {@link #run()} executes on a
+     * worker thread.
      */
-    private class CallerInfoAsyncQueryHandler extends AsyncQueryHandler {
+    private static final class Lookup implements Runnable {
+        private final String mKey;
+        private final Context mContext;
+        private final Uri mContactRef;
+        private final String mNumber;
+        private final int mEvent;
+        private final ArrayList<Waiter> mWaiters = new ArrayList<>();
+        private final long mStartTime = SystemClock.elapsedRealtime();
+
+        private volatile boolean mCancelled;
+        private long mQueueWaitMs;
+        private CallerInfo mCallerInfo;
+        /** Set when a batch query found the contact, so no query of its own was needed. */
+        private boolean mBatchMatched;
+
+        public Lookup(String key, Context context, Uri contactRef, String number, int event) {
+            mKey = key;
+            mContext = context;
+            mContactRef = contactRef;
+            mNumber = number;
+            mEvent = event;
+        }
 
         @Override
-        public void startQuery(int token, Object cookie, Uri uri, String[] projection,
-                String selection, String[] selectionArgs, String orderBy) {
-            if (DBG) {
-                // Show stack trace with the arguments.
-                android.util.Log.d(LOG_TAG, "InCall: startQuery: url=" + uri +
-                                " projection=[" + Arrays.toString(projection) + "]" +
-                                " selection=" + selection + " " +
-                                " args=[" + Arrays.toString(selectionArgs) + "]",
-                        new RuntimeException("STACKTRACE"));
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            mQueueWaitMs = SystemClock.elapsedRealtime() - mStartTime;
+
+            if (Log.DEBUG) {
+                Log.d(LOG_TAG, "Processing lookup query URI: "
+                        + sanitizeUriToString(mContactRef));
+            }
+            Cursor cursor = null;
+            try {
+                cursor = mContext.getContentResolver().query(
+                        mContactRef, null, null, null, null);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Exception thrown during caller info query", e);
             }
-            super.startQuery(token, cookie, uri, projection, selection, selectionArgs, orderBy);
+            complete(cursor);
         }
 
         /**
-         * The information relevant to each CallerInfo query.  Each query may have multiple
-         * listeners, so each AsyncCursorInfo is associated with 2 or more CookieWrapper
-         * objects in the queue (one with a new query event, and one with a end event, with
-         * 0 or more additional listeners in between).
+         * Builds the CallerInfo from the result of the query, closes the cursor and delivers the
+         * CallerInfo on the main thread.
          */
-        private Context mQueryContext;
-        private Uri mQueryUri;
-        private CallerInfo mCallerInfo;
+        private void complete(Cursor cursor) {
+            try {
+                mCallerInfo = buildCallerInfo(cursor);
+            } finally {
+                // The cursor may have been closed in CallerInfo.getCallerInfo()
+                if (cursor != null && !cursor.isClosed()) {
+                    cursor.close();
+                }
+            }
 
-        /**
-         * Our own query worker thread.
-         *
-         * This thread handles the messages enqueued in the looper.  The normal sequence
-         * of events is that a new query shows up in the looper queue, followed by 0 or
-         * more add listener requests, and then an end request.  Of course, these requests
-         * can be interlaced with requests from other tokens, but is irrelevant to this
-         * handler since the handler has no state.
-         *
-         * Note that we depend on the queue to keep things in order; in other words, the
-         * looper queue must be FIFO with respect to input from the synchronous startQuery
-         * calls and output to this handleMessage call.
-         *
-         * This use of the queue is required because CallerInfo objects may be accessed
-         * multiple times before the query is complete.  All accesses (listeners) must be
-         * queued up and informed in order when the query is complete.
-         */
-        protected class CallerInfoWorkerHandler extends WorkerHandler {
-            public CallerInfoWorkerHandler(Looper looper) {
-                super(looper);
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+
+        private CallerInfo buildCallerInfo(Cursor cursor) {
+            CallerInfo callerInfo = CallerInfo.getCallerInfo(mContext, mContactRef, cursor);
+            Log.d(LOG_TAG, "==> Got callerInfo: ", callerInfo);
+
+            CallerInfo newCallerInfo = CallerInfo.doSecondaryLookupIfNecessary(
+                    mContext, mNumber, callerInfo);
+            if (newCallerInfo != callerInfo) {
+                callerInfo = newCallerInfo;
+                Log.d(LOG_TAG, "#####async contact look up with numeric username", callerInfo);
             }
 
-            @Override
-            public void handleMessage(Message msg) {
-                WorkerArgs args = (WorkerArgs) msg.obj;
-                CookieWrapper cw = (CookieWrapper) args.cookie;
-
-                if (cw == null) {
-                    // Normally, this should never be the case for calls originating
-                    // from within this code.
-                    // However, if there is any code that this Handler calls (such as in
-                    // super.handleMessage) that DOES place unexpected messages on the
-                    // queue, then we need pass these messages on.
-                    Log.d(this, "Unexpected command (CookieWrapper is null): " + msg.what +
-                            " ignored by CallerInfoWorkerHandler, passing onto parent.");
-
-                    super.handleMessage(msg);
-                } else {
-
-                    Log.d(this, "Processing event: " + cw.event + " token (arg1): " + msg.arg1 +
-                            " command: " + msg.what + " query URI: " +
-                            sanitizeUriToString(args.uri));
-
-                    switch (cw.event) {
-                        case EVENT_NEW_QUERY:
-                            //start the sql command.
-                            super.handleMessage(msg);
-                            break;
-
-                        // shortcuts to avoid query for recognized numbers.
-                        case EVENT_EMERGENCY_NUMBER:
-                        case EVENT_VOICEMAIL_NUMBER:
-
-                        case EVENT_ADD_LISTENER:
-                        case EVENT_END_OF_QUEUE:
-                            // query was already completed, so just send the reply.
-                            // passing the original token value back to the caller
-                            // on top of the event values in arg1.
-                            Message reply = args.handler.obtainMessage(msg.what);
-                            reply.obj = args;
-                            reply.arg1 = msg.arg1;
-
-                            reply.sendToTarget();
-
-                            break;
-                        default:
-                    }
+            // Final step: look up the geocoded description.
+            if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
+                // Note we do this only if we *don't* have a valid name (i.e. if
+                // no contacts matched the phone number of the incoming call),
+                // since that's the only case where the incoming-call UI cares
+                // about this field.
+                //
+                // (TODO: But if we ever want the UI to show the geoDescription
+                // even when we *do* match a contact, we'll need to either call
+                // updateGeoDescription() unconditionally here, or possibly add a
+                // new parameter to CallerInfoAsyncQuery.startQuery() to force
+                // the geoDescription field to be populated.)
+
+                if (TextUtils.isEmpty(callerInfo.name)) {
+                    // Actually when no contacts match the incoming phone number,
+                    // the CallerInfo object is totally blank here (i.e. no name
+                    // *or* phoneNumber).  So we need to pass in mNumber as
+                    // a fallback number.
+                    callerInfo.updateGeoDescription(mContext, mNumber);
                 }
             }
-        }
 
+            // Use the number entered by the user for display.
+            if (!TextUtils.isEmpty(mNumber)) {
+                callerInfo.phoneNumber = PhoneNumberHelper.formatNumber(mNumber,
+                        callerInfo.normalizedNumber,
+                        TelephonyManagerUtils.getCurrentCountryIso(mContext,
+                                Locale.getDefault()));
+            }
+            return callerInfo;
+        }
 
         /**
-         * Asynchronous query handler class for the contact / callerinfo object.
+         * Called on the main thread once the lookup has finished, or straight away for numbers
+         * which do not need a query.
          */
-        private CallerInfoAsyncQueryHandler(Context context) {
-            super(context.getContentResolver());
-        }
+        private void deliver() {
+            if (sInFlightLookups.get(mKey) == this) {
+                sInFlightLookups.remove(mKey);
+            }
+            if (mCancelled) {
+                return;
+            }
 
-        @Override
-        protected Handler createHandler(Looper looper) {
-            return new CallerInfoWorkerHandler(looper);
+            if (mEvent == EVENT_EMERGENCY_NUMBER) {
+                // Note we're setting the phone number here (refer to javadoc
+                // comments at the top of CallerInfo class).
+                mCallerInfo = new CallerInfo().markAsEmergency(mContext);
+            } else if (mEvent == EVENT_VOICEMAIL_NUMBER) {
+                mCallerInfo = new CallerInfo().markAsVoiceMail(mContext);
+            } else {
+                final long lookupMs = SystemClock.elapsedRealtime() - mStartTime;
+                if (mBatchMatched) {
+                    sBatchMatchCount++;
+                }
+                sCompletedCount++;
+                sTotalQueueWaitMs += mQueueWaitMs;
+                sTotalLookupMs += lookupMs;
+                sMaxLookupMs = Math.max(sMaxLookupMs, lookupMs);
+            }
+
+            // Every waiter is handed the same CallerInfo, just as the listeners of a single
+            // query always have been.
+            for (int i = 0; i < mWaiters.size(); i++) {
+                final Waiter waiter = mWaiters.get(i);
+                if (waiter.listener != null) {
+                    if (Log.DEBUG) {
+                        Log.d(LOG_TAG, "notifying listener: "
+                                + waiter.listener.getClass().toString()
+                                + " for token: " + waiter.token + mCallerInfo);
+                    }
+                    waiter.listener.onQueryComplete(waiter.token, waiter.cookie, mCallerInfo);
+                }
+            }
+            mWaiters.clear();
         }
 
         /**
-         * Overrides onQueryComplete from AsyncQueryHandler.
+         * Removes the waiters with the given cookie.
          *
-         * This method takes into account the state of this class; we construct the CallerInfo
-         * object only once for each set of listeners. When the query thread has done its work
-         * and calls this method, we inform the remaining listeners in the queue, until we're
-         * out of listeners.  Once we get the message indicating that we should expect no new
-         * listeners for this CallerInfo object, we release the AsyncCursorInfo back into the
-         * pool.
+         * @return true if any waiter was removed.
          */
-        @Override
-        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
-            try {
-                Log.d(this, "##### onQueryComplete() #####   query complete for token: " + token);
-
-                //get the cookie and notify the listener.
-                CookieWrapper cw = (CookieWrapper) cookie;
-                if (cw == null) {
-                    // Normally, this should never be the case for calls originating
-                    // from within this code.
-                    // However, if there is any code that calls this method, we should
-                    // check the parameters to make sure they're viable.
-                    Log.d(this, "Cookie is null, ignoring onQueryComplete() request.");
-                    return;
+        private boolean removeWaiters(Object cookie) {
+            boolean removed = false;
+            for (Iterator<Waiter> it = mWaiters.iterator(); it.hasNext(); ) {
+                if (it.next().cookie == cookie) {
+                    it.remove();
+                    removed = true;
                 }
+            }
+            return removed;
+        }
+    }
 
-                if (cw.event == EVENT_END_OF_QUEUE) {
-                    release();
-                    return;
-                }
+    /**
+     * Resolves several lookups with one query of the phone numbers table, matching on the
+     * normalized number. Runs on a worker thread. Lookups which it does not match are handed back
+     * to the executor to run their own {@link PhoneLookup} query.
+     */
+    private static final class BatchLookup implements Runnable {
+        private final Context mContext;
+        private final ArrayList<Lookup> mLookups;
 
-                // check the token and if needed, create the callerinfo object.
-                if (mCallerInfo == null) {
-                    if ((mQueryContext == null) || (mQueryUri == null)) {
-                        throw new QueryPoolException
-                            ("Bad context or query uri, or CallerInfoAsyncQuery already released.");
-                    }
+        public BatchLookup(Context context, ArrayList<Lookup> lookups) {
+            mContext = context;
+            mLookups = lookups;
+        }
 
-                    // adjust the callerInfo data as needed, and only if it was set from the
-                    // initial query request.
-                    // Change the callerInfo number ONLY if it is an emergency number or the
-                    // voicemail number, and adjust other data (including photoResource)
-                    // accordingly.
-                    if (cw.event == EVENT_EMERGENCY_NUMBER) {
-                        // Note we're setting the phone number here (refer to javadoc
-                        // comments at the top of CallerInfo class).
-                        mCallerInfo = new CallerInfo().markAsEmergency(mQueryContext);
-                    } else if (cw.event == EVENT_VOICEMAIL_NUMBER) {
-                        mCallerInfo = new CallerInfo().markAsVoiceMail(mQueryContext);
-                    } else {
-                        mCallerInfo = CallerInfo.getCallerInfo(mQueryContext, mQueryUri, cursor);
-                        Log.d(this, "==> Got mCallerInfo: " + mCallerInfo);
-
-                        CallerInfo newCallerInfo = CallerInfo.doSecondaryLookupIfNecessary(
-                                mQueryContext, cw.number, mCallerInfo);
-                        if (newCallerInfo != mCallerInfo) {
-                            mCallerInfo = newCallerInfo;
-                            Log.d(this, "#####async contact look up with numeric username"
-                                    + mCallerInfo);
-                        }
+        @Override
+        public void run() {
+            final String countryIso = TelephonyManagerUtils.getCurrentCountryIso(mContext,
+                    Locale.getDefault());
+
+            // Lookups by the normalized number they are matched on.
+            final HashMap<String, ArrayList<Lookup>> lookupsByNumber = new HashMap<>();
+            for (int i = 0; i < mLookups.size(); i++) {
+                final Lookup lookup = mLookups.get(i);
+                if (lookup.mCancelled) {
+                    continue;
+                }
+                final String normalizedNumber =
+                        PhoneNumberUtils.formatNumberToE164(lookup.mNumber, countryIso);
+                if (normalizedNumber == null) {
+                    sExecutor.execute(lookup);
+                    continue;
+                }
+                ArrayList<Lookup> lookups = lookupsByNumber.get(normalizedNumber);
+                if (lookups == null) {
+                    lookups = new ArrayList<>(1);
+                    lookupsByNumber.put(normalizedNumber, lookups);
+                }
+                lookups.add(lookup);
+            }
+            if (lookupsByNumber.isEmpty()) {
+                return;
+            }
 
-                        // Final step: look up the geocoded description.
-                        if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
-                            // Note we do this only if we *don't* have a valid name (i.e. if
-                            // no contacts matched the phone number of the incoming call),
-                            // since that's the only case where the incoming-call UI cares
-                            // about this field.
-                            //
-                            // (TODO: But if we ever want the UI to show the geoDescription
-                            // even when we *do* match a contact, we'll need to either call
-                            // updateGeoDescription() unconditionally here, or possibly add a
-                            // new parameter to CallerInfoAsyncQuery.startQuery() to force
-                            // the geoDescription field to be populated.)
-
-                            if (TextUtils.isEmpty(mCallerInfo.name)) {
-                                // Actually when no contacts match the incoming phone number,
-                                // the CallerInfo object is totally blank here (i.e. no name
-                                // *or* phoneNumber).  So we need to pass in cw.number as
-                                // a fallback number.
-                                mCallerInfo.updateGeoDescription(mQueryContext, cw.number);
-                            }
-                        }
+            final String[] numbers = lookupsByNumber.keySet().toArray(new String[0]);
+            final StringBuilder selection = new StringBuilder(Phone.NORMALIZED_NUMBER)
+                    .append(" IN (");
+            for (int i = 0; i < numbers.length; i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(')');
 
-                        // Use the number entered by the user for display.
-                        if (!TextUtils.isEmpty(cw.number)) {
-                            mCallerInfo.phoneNumber = PhoneNumberHelper.formatNumber(cw.number,
-                                    mCallerInfo.normalizedNumber,
-                                    TelephonyManagerUtils.getCurrentCountryIso(mQueryContext,
-                                            Locale.getDefault()));
+            if (Log.DEBUG) {
+                Log.d(LOG_TAG, "Processing batch lookup of " + numbers.length + " numbers");
+            }
+            Cursor cursor = null;
+            try {
+                cursor = mContext.getContentResolver().query(Phone.CONTENT_URI,
+                        BATCH_PROJECTION, selection.toString(), numbers, null);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Exception thrown during batch caller info query", e);
+            }
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        // Like PhoneLookup, use the first contact which has the number.
+                        final ArrayList<Lookup> lookups = lookupsByNumber.remove(
+                                cursor.getString(3 /* Phone.NORMALIZED_NUMBER */));
+                        if (lookups != null) {
+                            completeLookups(lookups, cursor);
                         }
                     }
-
-                    Log.d(this, "constructing CallerInfo object for token: " + token);
-
-                    //notify that we can clean up the queue after this.
-                    CookieWrapper endMarker = new CookieWrapper();
-                    endMarker.event = EVENT_END_OF_QUEUE;
-                    startQuery(token, endMarker, null, null, null, null, null);
+                } finally {
+                    cursor.close();
                 }
+            }
 
-                //notify the listener that the query is complete.
-                if (cw.listener != null) {
-                    Log.d(this, "notifying listener: " + cw.listener.getClass().toString() +
-                            " for token: " + token + mCallerInfo);
-                    cw.listener.onQueryComplete(token, cw.cookie, mCallerInfo);
+            // Fall back to the fuzzier PhoneLookup match for the rest.
+            for (ArrayList<Lookup> lookups : lookupsByNumber.values()) {
+                for (int i = 0; i < lookups.size(); i++) {
+                    sExecutor.execute(lookups.get(i));
                 }
-            } finally {
-                // The cursor may have been closed in CallerInfo.getCallerInfo()
-                if (cursor != null && !cursor.isClosed()) {
-                    cursor.close();
+            }
+        }
+
+        /**
+         * Completes the lookups with the current row of the batch query, presented with the
+         * {@link PhoneLookup} columns that {@link CallerInfo#getCallerInfo} reads.
+         */
+        private void completeLookups(ArrayList<Lookup> lookups, Cursor cursor) {
+            final Object[] row = new Object[BATCH_RESULT_COLUMNS.length];
+            row[0] = cursor.getLong(0);
+            for (int column = 1; column < row.length; column++) {
+                row[column] = cursor.getString(column);
+            }
+            for (int i = 0; i < lookups.size(); i++) {
+                final Lookup lookup = lookups.get(i);
+                if (lookup.mCancelled) {
+                    continue;
                 }
+                final MatrixCursor result = new MatrixCursor(BATCH_RESULT_COLUMNS, 1);
+                result.addRow(row);
+                lookup.mQueueWaitMs = SystemClock.elapsedRealtime() - lookup.mStartTime;
+                lookup.mBatchMatched = true;
+                lookup.complete(result);
             }
         }
     }
 
+    private final Lookup mLookup;
+    private final Waiter mWaiter;
+
     /**
      * Private constructor for factory methods.
      */
-    private CallerInfoAsyncQuery() {
+    private CallerInfoAsyncQuery(Lookup lookup, Waiter waiter) {
+        mLookup = lookup;
+        mWaiter = waiter;
     }
 
     /**
@@ -338,8 +496,32 @@ public class CallerInfoAsyncQuery {
     public static CallerInfoAsyncQuery startQuery(int token, Context context, CallerInfo info,
             OnQueryCompleteListener listener, Object cookie) {
         Log.d(LOG_TAG, "##### CallerInfoAsyncQuery startQuery()... #####");
-        Log.d(LOG_TAG, "- number: " + info.phoneNumber);
-        Log.d(LOG_TAG, "- cookie: " + cookie);
+        Log.d(LOG_TAG, "- number: ", info.phoneNumber);
+        Log.d(LOG_TAG, "- cookie: ", cookie);
+
+        if (context == null) {
+            throw new QueryPoolException("Bad context or query uri.");
+        }
+
+        // check to see if these are recognized numbers, and use shortcuts if we can.
+        final int event;
+        if (PhoneNumberUtils.isLocalEmergencyNumber(context, info.phoneNumber)) {
+            event = EVENT_EMERGENCY_NUMBER;
+        } else if (info.isVoiceMailNumber()) {
+            event = EVENT_VOICEMAIL_NUMBER;
+        } else {
+            event = EVENT_NEW_QUERY;
+        }
+
+        final Waiter waiter = new Waiter(token, listener, cookie);
+        final String key = event + ":" + info.phoneNumber;
+        Lookup lookup = sInFlightLookups.get(key);
+        if (lookup != null) {
+            Log.d(LOG_TAG, "Joining lookup already in flight.");
+            sDedupedCount++;
+            lookup.mWaiters.add(waiter);
+            return new CallerInfoAsyncQuery(lookup, waiter);
+        }
 
         // Construct the URI object and query params, and start the query.
 
@@ -353,55 +535,128 @@ public class CallerInfoAsyncQuery {
             Log.d(LOG_TAG, "==> contactRef: " + sanitizeUriToString(contactRef));
         }
 
-        CallerInfoAsyncQuery c = new CallerInfoAsyncQuery();
-        c.allocate(context, contactRef);
+        lookup = new Lookup(key, context, contactRef, info.phoneNumber, event);
+        lookup.mWaiters.add(waiter);
+        sInFlightLookups.put(key, lookup);
 
-        //create cookieWrapper, start query
-        CookieWrapper cw = new CookieWrapper();
-        cw.listener = listener;
-        cw.cookie = cookie;
-        cw.number = info.phoneNumber;
-
-        // check to see if these are recognized numbers, and use shortcuts if we can.
-        if (PhoneNumberUtils.isLocalEmergencyNumber(context, info.phoneNumber)) {
-            cw.event = EVENT_EMERGENCY_NUMBER;
-        } else if (info.isVoiceMailNumber()) {
-            cw.event = EVENT_VOICEMAIL_NUMBER;
+        if (event == EVENT_NEW_QUERY) {
+            sLookupCount++;
+            if (sBatchDepth > 0 && !PhoneNumberHelper.isUriNumber(info.phoneNumber)) {
+                sPendingBatch.add(lookup);
+            } else {
+                sExecutor.execute(lookup);
+                sMaxQueueDepth = Math.max(sMaxQueueDepth,
+                        sExecutor.getQueue().size() + sExecutor.getActiveCount());
+            }
         } else {
-            cw.event = EVENT_NEW_QUERY;
+            // No query needed; still reply asynchronously as callers expect.
+            final Lookup shortcut = lookup;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    shortcut.deliver();
+                }
+            });
         }
+        return new CallerInfoAsyncQuery(lookup, waiter);
+    }
 
-        c.mHandler.startQuery(token,
-                              cw,  // cookie
-                              contactRef,  // uri
-                              null,  // projection
-                              null,  // selection
-                              null,  // selectionArgs
-                              null);  // orderBy
-        return c;
+    /**
+     * Starts collecting the lookups started by {@link #startQuery} into a batch, which is run by
+     * the matching {@link #endBatch(Context)}. Batches may be nested; the outermost one is run.
+     */
+    public static void beginBatch() {
+        sBatchDepth++;
     }
 
     /**
-     * Method to create a new CallerInfoAsyncQueryHandler object, ensuring correct
-     * state of context and uri.
+     * Ends a batch started with {@link #beginBatch()}, and runs its lookups if it is the
+     * outermost one. Listeners are notified of the results one lookup at a time, as for lookups
+     * started outside a batch.
+     *
+     * @param context The context used to run the batch query.
      */
-    private void allocate(Context context, Uri contactRef) {
-        if ((context == null) || (contactRef == null)){
-            throw new QueryPoolException("Bad context or query uri.");
+    public static void endBatch(Context context) {
+        if (sBatchDepth == 0) {
+            throw new IllegalStateException("endBatch() without beginBatch()");
+        }
+        sBatchDepth--;
+        if (sBatchDepth > 0 || sPendingBatch.isEmpty()) {
+            return;
         }
-        mHandler = new CallerInfoAsyncQueryHandler(context);
-        mHandler.mQueryContext = context;
-        mHandler.mQueryUri = contactRef;
+
+        if (sPendingBatch.size() == 1) {
+            sExecutor.execute(sPendingBatch.get(0));
+        } else {
+            sBatchCount++;
+            sBatchedLookupCount += sPendingBatch.size();
+            for (int i = 0; i < sPendingBatch.size(); i += MAX_BATCH_SIZE) {
+                sExecutor.execute(new BatchLookup(context, new ArrayList<>(sPendingBatch.subList(
+                        i, Math.min(i + MAX_BATCH_SIZE, sPendingBatch.size())))));
+            }
+        }
+        sMaxQueueDepth = Math.max(sMaxQueueDepth,
+                sExecutor.getQueue().size() + sExecutor.getActiveCount());
+        sPendingBatch.clear();
     }
 
     /**
-     * Releases the relevant data.
+     * Stops the listener of this query from being notified. The underlying lookup is cancelled
+     * if nobody else is waiting for it.
      */
-    private void release() {
-        mHandler.mQueryContext = null;
-        mHandler.mQueryUri = null;
-        mHandler.mCallerInfo = null;
-        mHandler = null;
+    public void cancel() {
+        if (mLookup.mWaiters.remove(mWaiter) && mLookup.mWaiters.isEmpty()) {
+            cancelLookup(mLookup);
+        }
+    }
+
+    /**
+     * Stops every query started with the given cookie from notifying its listener, e.g. because
+     * the call the lookup was for has disconnected. Lookups which nobody else is waiting for are
+     * cancelled, or dropped from the queue if they have not started yet.
+     *
+     * @return true if any query was still waiting for its result.
+     */
+    public static boolean cancelQueries(Object cookie) {
+        boolean cancelled = false;
+        for (Iterator<Lookup> it = sInFlightLookups.values().iterator(); it.hasNext(); ) {
+            final Lookup lookup = it.next();
+            if (lookup.removeWaiters(cookie)) {
+                cancelled = true;
+                if (lookup.mWaiters.isEmpty()) {
+                    it.remove();
+                    cancelLookup(lookup);
+                }
+            }
+        }
+        return cancelled;
+    }
+
+    private static void cancelLookup(Lookup lookup) {
+        lookup.mCancelled = true;
+        sExecutor.remove(lookup);
+        if (sInFlightLookups.get(lookup.mKey) == lookup) {
+            sInFlightLookups.remove(lookup.mKey);
+        }
+        sCancelledCount++;
+    }
+
+    public static void dump(PrintWriter pw) {
+        final int completed = sCompletedCount;
+        pw.println("CallerInfoAsyncQuery:");
+        pw.println("  lookups: " + sLookupCount);
+        pw.println("  deduped: " + sDedupedCount);
+        pw.println("  batches: " + sBatchCount + " (" + sBatchedLookupCount + " lookups, "
+                + sBatchMatchCount + " matched)");
+        pw.println("  cancelled: " + sCancelledCount);
+        pw.println("  inFlight: " + sInFlightLookups.size());
+        pw.println("  queueDepth: " + sExecutor.getQueue().size()
+                + " (max " + sMaxQueueDepth + ")");
+        if (completed > 0) {
+            pw.println("  avgQueueWaitMs: " + (sTotalQueueWaitMs / completed));
+            pw.println("  avgLookupMs: " + (sTotalLookupMs / completed));
+        }
+        pw.println("  maxLookupMs: " + sMaxLookupMs);
     }
 
     private static String sanitizeUriToString(Uri uri) {
@@ -51,17 +51,37 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
     /**
      * Internal class which represents a participant.  Includes a reference to the {@link Call} and
      * the corresponding {@link ContactCacheEntry} for the participant.
+     *
+     * Also holds a snapshot of everything shown in the participant's row, so that rows are only
+     * rebound when the snapshot changes.
      */
     private class ParticipantInfo {
+        private final long mItemId;
         private Call mCall;
         private ContactCacheEntry mContactCacheEntry;
+        private boolean mCacheLookupRequested = false;
         private boolean mCacheLookupComplete = false;
 
-        public ParticipantInfo(Call call, ContactCacheEntry contactCacheEntry) {
+        private String mName;
+        private String mNumber;
+        private String mLabel;
+        private String mLookupKey;
+        private Uri mPhotoUri;
+        private boolean mCanSeparate;
+        private boolean mCanDisconnect;
+        // Incremented whenever the snapshot changes.
+        private int mGeneration;
+
+        public ParticipantInfo(long itemId, Call call, ContactCacheEntry contactCacheEntry) {
+            mItemId = itemId;
             mCall = call;
             mContactCacheEntry = contactCacheEntry;
         }
 
+        public long getItemId() {
+            return mItemId;
+        }
+
         public Call getCall() {
             return mCall;
         }
@@ -86,6 +106,54 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
             mCacheLookupComplete = cacheLookupComplete;
         }
 
+        public boolean isCacheLookupRequested() {
+            return mCacheLookupRequested;
+        }
+
+        public void setCacheLookupRequested(boolean cacheLookupRequested) {
+            mCacheLookupRequested = cacheLookupRequested;
+        }
+
+        public int getGeneration() {
+            return mGeneration;
+        }
+
+        /**
+         * Refreshes the snapshot of the row contents from the call and contact info.
+         *
+         * @param parentCanSeparate {@code True} if the parent supports separating calls from the
+         *                                      conference.
+         * @return {@code True} if the row contents changed.
+         */
+        public boolean updateSnapshot(boolean parentCanSeparate) {
+            final ContactCacheEntry entry = mContactCacheEntry;
+            final android.telecom.Call.Details details = mCall.getTelecommCall().getDetails();
+            final boolean canSeparate = parentCanSeparate && details.can(
+                    android.telecom.Call.Details.CAPABILITY_SEPARATE_FROM_CONFERENCE);
+            final boolean canDisconnect = details.can(
+                    android.telecom.Call.Details.CAPABILITY_DISCONNECT_FROM_CONFERENCE);
+
+            if (mGeneration > 0
+                    && Objects.equals(mName, entry.name)
+                    && Objects.equals(mNumber, entry.number)
+                    && Objects.equals(mLabel, entry.label)
+                    && Objects.equals(mLookupKey, entry.lookupKey)
+                    && Objects.equals(mPhotoUri, entry.displayPhotoUri)
+                    && mCanSeparate == canSeparate
+                    && mCanDisconnect == canDisconnect) {
+                return false;
+            }
+            mName = entry.name;
+            mNumber = entry.number;
+            mLabel = entry.label;
+            mLookupKey = entry.lookupKey;
+            mPhotoUri = entry.displayPhotoUri;
+            mCanSeparate = canSeparate;
+            mCanDisconnect = canDisconnect;
+            mGeneration++;
+            return true;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (o instanceof ParticipantInfo) {
@@ -102,6 +170,22 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
         }
     }
 
+    /**
+     * Holds the views of a participant row, and which participant snapshot they show.
+     */
+    private static class ViewHolder {
+        ImageView photoView;
+        TextView nameTextView;
+        TextView numberTextView;
+        TextView numberTypeTextView;
+        View endButton;
+        View separateButton;
+
+        String callId;
+        ParticipantInfo boundInfo;
+        int boundGeneration;
+    }
+
     /**
      * Callback class used when making requests to the {@link ContactInfoCache} to resolve contact
      * info and contact photos for conference participants.
@@ -156,7 +240,7 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
         @Override
         public void onClick(View v) {
             View parent = (View) v.getParent();
-            String callId = (String) parent.getTag();
+            String callId = ((ViewHolder) parent.getTag()).callId;
             TelecomAdapter.getInstance().disconnectCall(callId);
         }
     };
@@ -168,7 +252,7 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
         @Override
         public void onClick(View v) {
             View parent = (View) v.getParent();
-            String callId = (String) parent.getTag();
+            String callId = ((ViewHolder) parent.getTag()).callId;
             TelecomAdapter.getInstance().separateCall(callId);
         }
     };
@@ -188,6 +272,12 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      */
     private final HashMap<String, ParticipantInfo> mParticipantsByCallId = new HashMap<>();
 
+    /**
+     * The item id for the next new participant.  Item ids are never reused, so the ListView can
+     * rely on them to identify a participant's row across updates.
+     */
+    private long mNextItemId = 0;
+
     /**
      * The context.
      */
@@ -267,7 +357,17 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      */
     @Override
     public long getItemId(int position) {
-        return position;
+        return mConferenceParticipants.get(position).getItemId();
+    }
+
+    /**
+     * Item ids are assigned per participant, rather than per position.
+     *
+     * @return {@code True}.
+     */
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     /**
@@ -281,7 +381,9 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
         if (mParticipantsByCallId.containsKey(callId)) {
             ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
             participantInfo.setCall(call);
-            refreshView(callId);
+            if (participantInfo.updateSnapshot(mParentCanSeparate)) {
+                refreshView(callId);
+            }
         }
     }
 
@@ -297,8 +399,8 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
 
         for (int position = 0; position <= last - first; position++) {
             View view = mListView.getChildAt(position);
-            String rowCallId = (String) view.getTag();
-            if (rowCallId.equals(callId)) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            if (holder != null && callId.equals(holder.callId)) {
                 getView(position+first, view, mListView);
                 break;
             }
@@ -317,40 +419,67 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         // Make sure we have a valid convertView to start with
-        final View result = convertView == null
-                        ? mLayoutInflater.inflate(R.layout.caller_in_conference, parent, false)
-                        : convertView;
+        final View result;
+        final ViewHolder holder;
+        if (convertView == null) {
+            result = mLayoutInflater.inflate(R.layout.caller_in_conference, parent, false);
+            holder = createViewHolder(result);
+        } else {
+            result = convertView;
+            holder = (ViewHolder) convertView.getTag();
+        }
 
         ParticipantInfo participantInfo = mConferenceParticipants.get(position);
-        Call call = participantInfo.getCall();
-        ContactCacheEntry contactCache = participantInfo.getContactCacheEntry();
-
-        final ContactInfoCache cache = ContactInfoCache.getInstance(mContext);
 
         // If a cache lookup has not yet been performed to retrieve the contact information and
-        // photo, do it now.
-        if (!participantInfo.isCacheLookupComplete()) {
-            cache.findInfo(participantInfo.getCall(),
+        // photo, do it now.  Lookups are normally requested in a batch when participants are
+        // added; see requestContactInfo().
+        if (!participantInfo.isCacheLookupComplete()
+                && !participantInfo.isCacheLookupRequested()) {
+            participantInfo.setCacheLookupRequested(true);
+            ContactInfoCache.getInstance(mContext).findInfo(participantInfo.getCall(),
                     participantInfo.getCall().getState() == Call.State.INCOMING,
                     new ContactLookupCallback(this));
         }
 
-        boolean thisRowCanSeparate = mParentCanSeparate && call.getTelecommCall().getDetails().can(
-                android.telecom.Call.Details.CAPABILITY_SEPARATE_FROM_CONFERENCE);
-        boolean thisRowCanDisconnect = call.getTelecommCall().getDetails().can(
-                android.telecom.Call.Details.CAPABILITY_DISCONNECT_FROM_CONFERENCE);
+        // The row already shows this participant as it is now.
+        if (holder.boundInfo == participantInfo
+                && holder.boundGeneration == participantInfo.getGeneration()) {
+            return result;
+        }
 
-        setCallerInfoForRow(result, contactCache.name, contactCache.number, contactCache.label,
-                contactCache.lookupKey, contactCache.displayPhotoUri, thisRowCanSeparate,
-                thisRowCanDisconnect);
+        setCallerInfoForRow(holder, participantInfo.mName, participantInfo.mNumber,
+                participantInfo.mLabel, participantInfo.mLookupKey, participantInfo.mPhotoUri,
+                participantInfo.mCanSeparate, participantInfo.mCanDisconnect);
 
-        // Tag the row in the conference participant list with the call id to make it easier to
+        // Remember the call id of the row in the conference participant list to make it easier to
         // find calls when contact cache information is loaded.
-        result.setTag(call.getId());
+        holder.callId = participantInfo.getCall().getId();
+        holder.boundInfo = participantInfo;
+        holder.boundGeneration = participantInfo.getGeneration();
 
         return result;
     }
 
+    /**
+     * Looks up the views of a newly inflated participant row and tags the row with them.
+     *
+     * @param view The row.
+     * @return The {@link ViewHolder}.
+     */
+    private static ViewHolder createViewHolder(View view) {
+        final ViewHolder holder = new ViewHolder();
+        holder.photoView = (ImageView) view.findViewById(R.id.callerPhoto);
+        holder.nameTextView = (TextView) view.findViewById(R.id.conferenceCallerName);
+        holder.numberTextView = (TextView) view.findViewById(R.id.conferenceCallerNumber);
+        holder.numberTypeTextView = (TextView) view.findViewById(
+                R.id.conferenceCallerNumberType);
+        holder.endButton = view.findViewById(R.id.conferenceCallerDisconnect);
+        holder.separateButton = view.findViewById(R.id.conferenceCallerSeparate);
+        view.setTag(holder);
+        return holder;
+    }
+
     /**
      * Replaces the contact info for a participant and triggers a refresh of the UI.
      *
@@ -362,14 +491,16 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
             ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
             participantInfo.setContactCacheEntry(entry);
             participantInfo.setCacheLookupComplete(true);
-            refreshView(callId);
+            if (participantInfo.updateSnapshot(mParentCanSeparate)) {
+                refreshView(callId);
+            }
         }
     }
 
     /**
      * Sets the caller information for a row in the conference participant list.
      *
-     * @param view The view to set the details on.
+     * @param holder The views of the row to set the details on.
      * @param callerName The participant's name.
      * @param callerNumber The participant's phone number.
      * @param callerNumberType The participant's phone number typ.e
@@ -378,17 +509,16 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      * @param thisRowCanSeparate {@code True} if this participant can separate from the conference.
      * @param thisRowCanDisconnect {@code True} if this participant can be disconnected.
      */
-    private final void setCallerInfoForRow(View view, String callerName, String callerNumber,
-            String callerNumberType, String lookupKey, Uri photoUri, boolean thisRowCanSeparate,
-            boolean thisRowCanDisconnect) {
-
-        final ImageView photoView = (ImageView) view.findViewById(R.id.callerPhoto);
-        final TextView nameTextView = (TextView) view.findViewById(R.id.conferenceCallerName);
-        final TextView numberTextView = (TextView) view.findViewById(R.id.conferenceCallerNumber);
-        final TextView numberTypeTextView = (TextView) view.findViewById(
-                R.id.conferenceCallerNumberType);
-        final View endButton = view.findViewById(R.id.conferenceCallerDisconnect);
-        final View separateButton = view.findViewById(R.id.conferenceCallerSeparate);
+    private final void setCallerInfoForRow(ViewHolder holder, String callerName,
+            String callerNumber, String callerNumberType, String lookupKey, Uri photoUri,
+            boolean thisRowCanSeparate, boolean thisRowCanDisconnect) {
+
+        final ImageView photoView = holder.photoView;
+        final TextView nameTextView = holder.nameTextView;
+        final TextView numberTextView = holder.numberTextView;
+        final TextView numberTypeTextView = holder.numberTypeTextView;
+        final View endButton = holder.endButton;
+        final View separateButton = holder.separateButton;
 
         endButton.setVisibility(thisRowCanDisconnect ? View.VISIBLE : View.GONE);
         if (thisRowCanDisconnect) {
@@ -428,68 +558,164 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      * Updates the participant info list which is bound to the ListView.  Stores the call and
      * contact info for all entries.  The list is sorted alphabetically by participant name.
      *
+     * The new list is diffed against the current one by call id.  Inserted, removed or moved
+     * participants change the list structure and need a data set change, after which the
+     * ListView only rebinds rows whose contents changed (see {@link #getView}).  Otherwise only
+     * the visible rows of changed participants are rebound.
+     *
      * @param conferenceParticipants The calls which make up the conference participants.
      */
     private void updateParticipantInfo(List<Call> conferenceParticipants) {
         final ContactInfoCache cache = ContactInfoCache.getInstance(mContext);
-        boolean newParticipantAdded = false;
-        HashSet<String> newCallIds = new HashSet<>(conferenceParticipants.size());
+        final ArrayList<ParticipantInfo> newParticipants =
+                new ArrayList<>(conferenceParticipants.size());
+        final ArrayList<String> changedCallIds = new ArrayList<>();
+        final long firstNewItemId = mNextItemId;
+        int inserted = 0;
+        boolean nameChanged = false;
 
         // Update or add conference participant info.
         for (Call call : conferenceParticipants) {
             String callId = call.getId();
-            newCallIds.add(callId);
             ContactCacheEntry contactCache = cache.getInfo(callId);
             if (contactCache == null) {
                 contactCache = ContactInfoCache.buildCacheEntryFromCall(mContext, call,
                         call.getState() == Call.State.INCOMING);
             }
 
-            if (mParticipantsByCallId.containsKey(callId)) {
-                ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
+            ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
+            if (participantInfo != null) {
+                final String oldName = participantInfo.mName;
                 participantInfo.setCall(call);
                 participantInfo.setContactCacheEntry(contactCache);
+                if (participantInfo.updateSnapshot(mParentCanSeparate)) {
+                    changedCallIds.add(callId);
+                    nameChanged |= !Objects.equals(oldName, participantInfo.mName);
+                }
             } else {
-                newParticipantAdded = true;
-                ParticipantInfo participantInfo = new ParticipantInfo(call, contactCache);
-                mConferenceParticipants.add(participantInfo);
-                mParticipantsByCallId.put(call.getId(), participantInfo);
+                inserted++;
+                participantInfo = new ParticipantInfo(mNextItemId++, call, contactCache);
+                participantInfo.updateSnapshot(mParentCanSeparate);
+                mParticipantsByCallId.put(callId, participantInfo);
             }
+            newParticipants.add(participantInfo);
         }
 
         // Remove any participants that no longer exist.
-        Iterator<Map.Entry<String, ParticipantInfo>> it =
-                mParticipantsByCallId.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, ParticipantInfo> entry = it.next();
-            String existingCallId = entry.getKey();
-            if (!newCallIds.contains(existingCallId)) {
-                ParticipantInfo existingInfo = entry.getValue();
-                mConferenceParticipants.remove(existingInfo);
-                it.remove();
+        int removed = 0;
+        if (mParticipantsByCallId.size() > newParticipants.size()) {
+            final HashSet<ParticipantInfo> current = new HashSet<>(newParticipants);
+            Iterator<Map.Entry<String, ParticipantInfo>> it =
+                    mParticipantsByCallId.entrySet().iterator();
+            while (it.hasNext()) {
+                if (!current.contains(it.next().getValue())) {
+                    it.remove();
+                    removed++;
+                }
             }
         }
 
-        if (newParticipantAdded) {
+        if (inserted > 0 || nameChanged) {
             // Sort the list of participants by contact name.
-            sortParticipantList();
+            sortParticipantList(newParticipants);
+        } else {
+            // Keep the existing order.
+            newParticipants.clear();
+            for (ParticipantInfo participantInfo : mConferenceParticipants) {
+                if (isParticipant(participantInfo)) {
+                    newParticipants.add(participantInfo);
+                }
+            }
         }
-        notifyDataSetChanged();
+
+        final int moved = countMoved(mConferenceParticipants, newParticipants, firstNewItemId);
+        Log.v(this, "updateParticipantInfo: inserted=" + inserted + " removed=" + removed
+                + " moved=" + moved + " changed=" + changedCallIds.size());
+
+        mConferenceParticipants = newParticipants;
+        if (inserted > 0 || removed > 0 || moved > 0) {
+            notifyDataSetChanged();
+        } else {
+            for (String callId : changedCallIds) {
+                refreshView(callId);
+            }
+        }
+
+        if (inserted > 0) {
+            requestContactInfo();
+        }
+    }
+
+    /**
+     * Looks up the contact info of every participant which has not been looked up yet, with one
+     * batched request rather than one request per row.
+     */
+    private void requestContactInfo() {
+        final ArrayList<Call> calls = new ArrayList<>();
+        for (ParticipantInfo participantInfo : mConferenceParticipants) {
+            if (!participantInfo.isCacheLookupComplete()
+                    && !participantInfo.isCacheLookupRequested()) {
+                participantInfo.setCacheLookupRequested(true);
+                calls.add(participantInfo.getCall());
+            }
+        }
+        if (!calls.isEmpty()) {
+            ContactInfoCache.getInstance(mContext).findInfoForCalls(calls,
+                    new ContactLookupCallback(this));
+        }
+    }
+
+    /**
+     * Counts the participants present in both lists whose position relative to the other such
+     * participants differs between the lists.
+     *
+     * @param oldParticipants The participants currently shown.
+     * @param newParticipants The participants to show.
+     * @param firstNewItemId The item id of the first participant added by this update.
+     * @return The number of participants which moved.
+     */
+    private int countMoved(List<ParticipantInfo> oldParticipants,
+            List<ParticipantInfo> newParticipants, long firstNewItemId) {
+        int moved = 0;
+        int oldIndex = 0;
+        for (ParticipantInfo participantInfo : newParticipants) {
+            // Skip participants which were removed.
+            while (oldIndex < oldParticipants.size()
+                    && !isParticipant(oldParticipants.get(oldIndex))) {
+                oldIndex++;
+            }
+            if (oldIndex == oldParticipants.size()) {
+                break;
+            }
+            if (oldParticipants.get(oldIndex) == participantInfo) {
+                oldIndex++;
+            } else if (participantInfo.getItemId() < firstNewItemId) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * @return {@code True} if the participant is still part of the conference.
+     */
+    private boolean isParticipant(ParticipantInfo participantInfo) {
+        return mParticipantsByCallId.get(participantInfo.getCall().getId()) == participantInfo;
     }
 
     /**
      * Sorts the participant list by contact name.
      */
-    private void sortParticipantList() {
-        Collections.sort(mConferenceParticipants, new Comparator<ParticipantInfo>() {
+    private void sortParticipantList(List<ParticipantInfo> participants) {
+        Collections.sort(participants, new Comparator<ParticipantInfo>() {
             public int compare(ParticipantInfo p1, ParticipantInfo p2) {
                 // Contact names might be null, so replace with empty string.
-                String p1Name = p1.getContactCacheEntry().name;
+                String p1Name = p1.mName;
                 if (p1Name == null) {
                     p1Name = "";
                 }
 
-                String p2Name = p2.getContactCacheEntry().name;
+                String p2Name = p2.mName;
                 if (p2Name == null) {
                     p2Name = "";
                 }
@@ -26,6 +26,7 @@ import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.telecom.TelecomManager;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 
 import com.android.contacts.common.util.PhoneNumberHelper;
 import com.android.incallui.service.PhoneNumberService;
@@ -36,7 +37,9 @@ import com.google.common.collect.Sets;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 
+import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -54,6 +57,16 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     private final PhoneNumberService mPhoneNumberService;
     private final HashMap<String, ContactCacheEntry> mInfoMap = Maps.newHashMap();
     private final HashMap<String, Set<ContactInfoCacheCallback>> mCallBacks = Maps.newHashMap();
+    private final CallerIdDiskCache mDiskCache;
+    /**
+     * Ids of calls whose entry in {@link #mInfoMap} was restored from {@link #mDiskCache} and has
+     * not yet been confirmed by a fresh lookup.
+     */
+    private final Set<String> mRevalidatingCallIds = Sets.newHashSet();
+    /** Lookups in flight, keyed by {@link #getNumberLookupKey}. */
+    private final HashMap<String, NumberLookup> mNumberLookups = Maps.newHashMap();
+    /** The same lookups, keyed by the id of the call which started them. */
+    private final HashMap<String, NumberLookup> mNumberLookupsByCallId = Maps.newHashMap();
 
     private static ContactInfoCache sCache = null;
 
@@ -70,6 +83,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     private ContactInfoCache(Context context) {
         mContext = context;
         mPhoneNumberService = ServiceFactory.newPhoneNumberService(context);
+        mDiskCache = new CallerIdDiskCache(context);
     }
 
     public ContactCacheEntry getInfo(String callId) {
@@ -87,6 +101,24 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         return entry;
     }
 
+    /**
+     * A lookup in flight for a number. Other calls with the same number, such as a conference
+     * leg and a new incoming call, share its provider query, reverse lookup and photo instead of
+     * starting their own.
+     */
+    private static final class NumberLookup {
+        public final String key;
+        public final String callId;
+        public final Set<String> sharingCallIds = Sets.newHashSet();
+        /** The latest result of the lookup, once the local lookup has completed. */
+        public ContactCacheEntry entry;
+
+        public NumberLookup(String key, String callId) {
+            this.key = key;
+            this.callId = callId;
+        }
+    }
+
     private class FindInfoCallback implements CallerInfoAsyncQuery.OnQueryCompleteListener {
         private final boolean mIsIncoming;
 
@@ -138,6 +170,37 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         callBacks.add(callback);
         mCallBacks.put(callId, callBacks);
 
+        // Show whatever we found for this number last time while the lookup below revalidates it.
+        if (cacheEntry == null
+                && call.getNumberPresentation() == TelecomManager.PRESENTATION_ALLOWED) {
+            final ContactCacheEntry persistedEntry = mDiskCache.get(call.getNumber());
+            if (persistedEntry != null) {
+                Log.d(TAG, "Contact lookup. Persistent cache hit; revalidating.");
+                mInfoMap.put(callId, persistedEntry);
+                mRevalidatingCallIds.add(callId);
+                sendInfoNotifications(callId, persistedEntry);
+            }
+        }
+
+        final String numberLookupKey = getNumberLookupKey(call, isIncoming);
+        final NumberLookup numberLookup =
+                numberLookupKey == null ? null : mNumberLookups.get(numberLookupKey);
+        if (numberLookup != null) {
+            Log.d(TAG, "Contact lookup. Sharing lookup in flight for the same number.");
+            numberLookup.sharingCallIds.add(callId);
+            findInfoQueryComplete(call, CallerInfoUtils.buildCallerInfo(mContext, call),
+                    isIncoming, false);
+            if (numberLookup.entry != null) {
+                shareEntry(numberLookup, callId, numberLookup.entry);
+            }
+            return;
+        }
+        if (numberLookupKey != null) {
+            final NumberLookup newLookup = new NumberLookup(numberLookupKey, callId);
+            mNumberLookups.put(numberLookupKey, newLookup);
+            mNumberLookupsByCallId.put(callId, newLookup);
+        }
+
         /**
          * Performs a query for caller information.
          * Save any immediate data we get from the query. An asynchronous query may also be made
@@ -150,6 +213,97 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         findInfoQueryComplete(call, callerInfo, isIncoming, false);
     }
 
+    /**
+     * Requests contact data for several calls, such as the participants of a conference. The
+     * provider lookups they need are batched into as few queries as possible; each call's
+     * callback is notified as if {@link #findInfo} had been called for it.
+     *
+     * @param calls The calls to find contact data for.
+     * @param callback The function to call back when a call is found.
+     */
+    public void findInfoForCalls(List<Call> calls, ContactInfoCacheCallback callback) {
+        CallerInfoAsyncQuery.beginBatch();
+        try {
+            for (int i = 0; i < calls.size(); i++) {
+                final Call call = calls.get(i);
+                findInfo(call, call.getState() == Call.State.INCOMING, callback);
+            }
+        } finally {
+            CallerInfoAsyncQuery.endBatch(mContext);
+        }
+    }
+
+    /**
+     * Returns the key under which lookups for the call can be shared with other calls, or null if
+     * the call's number is not available.
+     */
+    private static String getNumberLookupKey(Call call, boolean isIncoming) {
+        if (call.getNumberPresentation() != TelecomManager.PRESENTATION_ALLOWED) {
+            return null;
+        }
+        final String number = CallerIdDiskCache.getNormalizedNumber(call.getNumber());
+        if (number == null) {
+            return null;
+        }
+        // Incoming calls also show the number's location, so they do not share with other calls.
+        return number + (isIncoming ? "/in" : "/out");
+    }
+
+    /**
+     * Hands the latest result of the lookup started by callId to the calls sharing it.
+     */
+    private void shareLookupResult(String callId, ContactCacheEntry entry) {
+        final NumberLookup numberLookup = mNumberLookupsByCallId.get(callId);
+        if (numberLookup == null) {
+            return;
+        }
+        numberLookup.entry = entry;
+        for (String sharingCallId : numberLookup.sharingCallIds) {
+            shareEntry(numberLookup, sharingCallId, entry);
+        }
+    }
+
+    /**
+     * Gives the sharing call its own copy of the entry, so that changes made to one call's entry
+     * do not show up in the others.
+     */
+    private void shareEntry(NumberLookup numberLookup, String sharingCallId,
+            ContactCacheEntry entry) {
+        final ContactCacheEntry sharedEntry = copyEntry(entry);
+        mInfoMap.put(sharingCallId, sharedEntry);
+        mRevalidatingCallIds.remove(sharingCallId);
+        sendInfoNotifications(sharingCallId, sharedEntry);
+        if (sharedEntry.photo != null && sharedEntry.displayPhotoUri != null) {
+            sendImageNotifications(sharingCallId, sharedEntry);
+        }
+    }
+
+    private static ContactCacheEntry copyEntry(ContactCacheEntry entry) {
+        final ContactCacheEntry copy = new ContactCacheEntry();
+        copy.name = entry.name;
+        copy.number = entry.number;
+        copy.location = entry.location;
+        copy.label = entry.label;
+        copy.photo = copyPhoto(entry.photo);
+        copy.isSipCall = entry.isSipCall;
+        copy.contactUri = entry.contactUri;
+        copy.displayPhotoUri = entry.displayPhotoUri;
+        copy.lookupUri = entry.lookupUri;
+        copy.lookupKey = entry.lookupKey;
+        return copy;
+    }
+
+    /**
+     * Returns a drawable of the same photo which can be shown in another view.
+     */
+    private static Drawable copyPhoto(Drawable photo) {
+        if (photo == null) {
+            return null;
+        }
+        final Drawable.ConstantState state = photo.getConstantState();
+        return state != null ? state.newDrawable() : photo;
+    }
+
     private void findInfoQueryComplete(Call call, CallerInfo callerInfo, boolean isIncoming,
             boolean didLocalLookup) {
         final String callId = call.getId();
@@ -166,25 +320,49 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                 callerInfo.contactExists) {
             cacheEntry = buildEntry(mContext, callId, callerInfo, presentationMode, isIncoming);
             mInfoMap.put(callId, cacheEntry);
+            mRevalidatingCallIds.remove(callId);
+        }
+
+        // If the entry came from the persistent cache and the local lookup did not confirm it,
+        // keep what the local lookup found so we can fall back to it if nothing else does.
+        ContactCacheEntry fallbackEntry = null;
+        if (didLocalLookup && mRevalidatingCallIds.contains(callId)) {
+            fallbackEntry = buildEntry(mContext, callId, callerInfo, presentationMode, isIncoming);
+            if (mPhoneNumberService == null) {
+                revertRevalidatedEntry(callId, call.getNumber(), fallbackEntry);
+                cacheEntry = fallbackEntry;
+            }
         }
 
         sendInfoNotifications(callId, cacheEntry);
 
         if (didLocalLookup) {
+            shareLookupResult(callId, cacheEntry);
+
+            if (callerInfo.contactExists && !callerInfo.isEmergencyNumber() &&
+                    !callerInfo.isVoiceMailNumber() &&
+                    call.getNumberPresentation() == TelecomManager.PRESENTATION_ALLOWED) {
+                mDiskCache.put(call.getNumber(), cacheEntry);
+            }
+
             // Before issuing a request for more data from other services, we only check that the
             // contact wasn't found in the local DB.  We don't check the if the cache entry already
             // has a name because we allow overriding cnap data with data from other services.
             if (!callerInfo.contactExists && mPhoneNumberService != null) {
                 Log.d(TAG, "Contact lookup. Local contacts miss, checking remote");
-                final PhoneNumberServiceListener listener = new PhoneNumberServiceListener(callId);
-                mPhoneNumberService.getPhoneNumberInfo(cacheEntry.number, listener, listener,
+                final ContactCacheEntry lookupEntry =
+                        fallbackEntry != null ? fallbackEntry : cacheEntry;
+                final PhoneNumberServiceListener listener = new PhoneNumberServiceListener(
+                        callId, call.getNumber(), fallbackEntry);
+                mPhoneNumberService.getPhoneNumberInfo(lookupEntry.number, listener, listener,
                         isIncoming);
             } else if (cacheEntry.displayPhotoUri != null) {
                 Log.d(TAG, "Contact lookup. Local contact found, starting image load");
                 // Load the image with a callback to update the image state.
                 // When the load is finished, onImageLoadComplete() will be called.
                 ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
-                        mContext, cacheEntry.displayPhotoUri, ContactInfoCache.this, callId);
+                        mContext, cacheEntry.displayPhotoUri, getPhotoTargetSize(),
+                        ContactInfoCache.this, callId);
             } else {
                 if (callerInfo.contactExists) {
                     Log.d(TAG, "Contact lookup done. Local contact found, no image.");
@@ -197,12 +375,31 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         }
     }
 
+    /**
+     * Replaces an entry restored from the persistent cache which a fresh lookup could not
+     * confirm, and forgets it on disk.
+     */
+    private void revertRevalidatedEntry(String callId, String number,
+            ContactCacheEntry fallbackEntry) {
+        if (!mRevalidatingCallIds.remove(callId)) {
+            return;
+        }
+        Log.d(TAG, "Contact lookup. Persistent cache entry is out of date.");
+        mDiskCache.remove(number);
+        mInfoMap.put(callId, fallbackEntry);
+    }
+
     class PhoneNumberServiceListener implements PhoneNumberService.NumberLookupListener,
                                      PhoneNumberService.ImageLookupListener {
         private final String mCallId;
+        private final String mNumber;
+        private final ContactCacheEntry mFallbackEntry;
 
-        PhoneNumberServiceListener(String callId) {
+        PhoneNumberServiceListener(String callId, String number,
+                ContactCacheEntry fallbackEntry) {
             mCallId = callId;
+            mNumber = number;
+            mFallbackEntry = fallbackEntry;
         }
 
         @Override
@@ -212,6 +409,11 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             // so clear the callbacks and return.
             if (info == null) {
                 Log.d(TAG, "Contact lookup done. Remote contact not found.");
+                if (mFallbackEntry != null && mRevalidatingCallIds.contains(mCallId)) {
+                    revertRevalidatedEntry(mCallId, mNumber, mFallbackEntry);
+                    sendInfoNotifications(mCallId, mFallbackEntry);
+                    shareLookupResult(mCallId, mFallbackEntry);
+                }
                 clearCallbacks(mCallId);
                 return;
             }
@@ -245,7 +447,10 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
             // Add the contact info to the cache.
             mInfoMap.put(mCallId, entry);
+            mRevalidatingCallIds.remove(mCallId);
+            mDiskCache.put(mNumber, entry);
             sendInfoNotifications(mCallId, entry);
+            shareLookupResult(mCallId, entry);
 
             // If there is no image then we should not expect another callback.
             if (info.getImageUrl() == null) {
@@ -293,15 +498,56 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         }
 
         sendImageNotifications(callId, entry);
+        final NumberLookup numberLookup = mNumberLookupsByCallId.get(callId);
+        if (numberLookup != null) {
+            for (String sharingCallId : numberLookup.sharingCallIds) {
+                final ContactCacheEntry sharedEntry = mInfoMap.get(sharingCallId);
+                if (sharedEntry == null) {
+                    continue;
+                }
+                sharedEntry.photo = copyPhoto(entry.photo);
+                sendImageNotifications(sharingCallId, sharedEntry);
+            }
+        }
         clearCallbacks(callId);
     }
 
+    /**
+     * Cancels the contacts lookup for a call which has disconnected, if it is still pending.
+     */
+    public void cancelLookup(Call call) {
+        final String callId = call.getId();
+        final NumberLookup numberLookup = mNumberLookupsByCallId.get(callId);
+        if (numberLookup != null && !numberLookup.sharingCallIds.isEmpty()) {
+            // Other calls are still waiting for this lookup.
+            return;
+        }
+        for (NumberLookup lookup : mNumberLookups.values()) {
+            if (lookup.sharingCallIds.remove(callId)) {
+                clearCallbacks(callId);
+                return;
+            }
+        }
+        if (CallerInfoAsyncQuery.cancelQueries(call)) {
+            Log.d(TAG, "Contact lookup cancelled for disconnected call.");
+            clearCallbacks(callId);
+        }
+    }
+
     /**
      * Blows away the stored cache values.
      */
     public void clearCache() {
         mInfoMap.clear();
         mCallBacks.clear();
+        mRevalidatingCallIds.clear();
+        mNumberLookups.clear();
+        mNumberLookupsByCallId.clear();
+        ContactsAsyncHelper.onPhotosReleased();
+    }
+
+    public void dump(PrintWriter pw) {
+        mDiskCache.dump(pw);
     }
 
     private ContactCacheEntry buildEntry(Context context, String callId,
@@ -477,6 +723,15 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
     private void clearCallbacks(String callId) {
         mCallBacks.remove(callId);
+
+        // The lookup is complete, so the calls sharing it are done as well.
+        final NumberLookup numberLookup = mNumberLookupsByCallId.remove(callId);
+        if (numberLookup != null) {
+            mNumberLookups.remove(numberLookup.key);
+            for (String sharingCallId : numberLookup.sharingCallIds) {
+                mCallBacks.remove(sharingCallId);
+            }
+        }
     }
 
     /**
@@ -492,6 +747,15 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         return name;
     }
 
+    /**
+     * Returns the size in pixels contact photos are loaded at. The largest place a photo is shown
+     * is the call card, which spans the shorter edge of the screen.
+     */
+    private int getPhotoTargetSize() {
+        final DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        return Math.min(metrics.widthPixels, metrics.heightPixels);
+    }
+
     public Drawable getDefaultContactPhotoDrawable() {
         if (mDefaultContactPhotoDrawable == null) {
             mDefaultContactPhotoDrawable =
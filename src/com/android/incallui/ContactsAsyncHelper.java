@@ -17,10 +17,11 @@
 package com.android.incallui;
 
 import android.app.Notification;
-import android.content.ContentUris;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -28,10 +29,12 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
-import android.provider.ContactsContract.Contacts;
+import android.util.LruCache;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 
 /**
  * Helper class for loading contacts photo asynchronously.
@@ -46,11 +49,11 @@ public class ContactsAsyncHelper {
          * Called when the image load is complete.
          *
          * @param token Integer passed in {@link ContactsAsyncHelper#startObtainPhotoAsync(int,
-         * Context, Uri, OnImageLoadCompleteListener, Object)}.
+         * Context, Uri, int, OnImageLoadCompleteListener, Object)}.
          * @param photo Drawable object obtained by the async load.
          * @param photoIcon Bitmap object obtained by the async load.
          * @param cookie Object passed in {@link ContactsAsyncHelper#startObtainPhotoAsync(int,
-         * Context, Uri, OnImageLoadCompleteListener, Object)}. Can be null iff. the original
+         * Context, Uri, int, OnImageLoadCompleteListener, Object)}. Can be null iff. the original
          * cookie is null.
          */
         public void onImageLoadComplete(int token, Drawable photo, Bitmap photoIcon,
@@ -60,6 +63,99 @@ public class ContactsAsyncHelper {
     // constants
     private static final int EVENT_LOAD_IMAGE = 1;
 
+    /** Upper bound on the memory used by {@link #sPhotoCache}. */
+    private static final int MAX_PHOTO_CACHE_BYTES = 8 * 1024 * 1024;
+    /** Number of evicted bitmaps kept around to be decoded into. */
+    private static final int MAX_REUSABLE_BITMAPS = 4;
+    /** Number of photos whose dimensions are remembered by {@link #sPhotoBounds}. */
+    private static final int MAX_PHOTO_BOUNDS = 32;
+
+    /**
+     * Identifies a decoded photo: the display photo uri plus the sample size it was decoded at.
+     */
+    private static final class PhotoKey {
+        public final Uri displayPhotoUri;
+        public final int sampleSize;
+
+        public PhotoKey(Uri displayPhotoUri, int sampleSize) {
+            this.displayPhotoUri = displayPhotoUri;
+            this.sampleSize = sampleSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PhotoKey)) {
+                return false;
+            }
+            final PhotoKey other = (PhotoKey) o;
+            return sampleSize == other.sampleSize && displayPhotoUri.equals(other.displayPhotoUri);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * displayPhotoUri.hashCode() + sampleSize;
+        }
+    }
+
+    /** A decoded photo and the scaled version of it used for the notification large icon. */
+    private static final class CachedPhoto {
+        public final Bitmap photo;
+        public final Bitmap photoIcon;
+
+        public CachedPhoto(Bitmap photo, Bitmap photoIcon) {
+            this.photo = photo;
+            this.photoIcon = photoIcon;
+        }
+
+        public int getByteCount() {
+            int byteCount = photo.getAllocationByteCount();
+            if (photoIcon != null && photoIcon != photo) {
+                byteCount += photoIcon.getAllocationByteCount();
+            }
+            return byteCount;
+        }
+    }
+
+    /**
+     * Decoded photos keyed by display photo uri and sample size, so that repeat callers and
+     * conference participants do not decode the same photo again.
+     */
+    private static final LruCache<PhotoKey, CachedPhoto> sPhotoCache =
+            new LruCache<PhotoKey, CachedPhoto>(getPhotoCacheBudget()) {
+        @Override
+        protected int sizeOf(PhotoKey key, CachedPhoto value) {
+            return value.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, PhotoKey key, CachedPhoto oldValue,
+                CachedPhoto newValue) {
+            offerReusableBitmap(oldValue.photo);
+            if (oldValue.photoIcon != oldValue.photo) {
+                offerReusableBitmap(oldValue.photoIcon);
+            }
+        }
+    };
+
+    /**
+     * Dimensions of recently loaded photos, so that the sample size, and with it the
+     * {@link #sPhotoCache} key, is known without reading the photo's header again.
+     */
+    private static final LruCache<Uri, Point> sPhotoBounds =
+            new LruCache<Uri, Point>(MAX_PHOTO_BOUNDS);
+
+    /**
+     * Bitmaps evicted from {@link #sPhotoCache} which nothing displays any more, and which can
+     * therefore be decoded into via {@link BitmapFactory.Options#inBitmap}.
+     */
+    private static final ArrayList<Bitmap> sReusableBitmaps = new ArrayList<>();
+
+    /**
+     * Whether photos handed out by this class may still be on screen. Evicted bitmaps are only
+     * reused once the in-call UI has released them.
+     */
+    private static volatile boolean sPhotosInUse = false;
+
     private final Handler mResultHandler = new Handler() {
         /** Called when loading is done. */
         @Override
@@ -93,6 +189,7 @@ public class ContactsAsyncHelper {
     private static final class WorkerArgs {
         public Context context;
         public Uri displayPhotoUri;
+        public int targetSize;
         public Drawable photo;
         public Bitmap photoIcon;
         public Object cookie;
@@ -114,41 +211,39 @@ public class ContactsAsyncHelper {
 
             switch (msg.arg1) {
                 case EVENT_LOAD_IMAGE:
-                    InputStream inputStream = null;
-                    try {
-                        try {
-                            inputStream = args.context.getContentResolver()
-                                    .openInputStream(args.displayPhotoUri);
-                        } catch (Exception e) {
-                            Log.e(this, "Error opening photo input stream", e);
-                        }
-
-                        if (inputStream != null) {
-                            args.photo = Drawable.createFromStream(inputStream,
-                                    args.displayPhotoUri.toString());
-
-                            // This assumes Drawable coming from contact database is usually
-                            // BitmapDrawable and thus we can have (down)scaled version of it.
-                            args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
-
-                            Log.d(ContactsAsyncHelper.this, "Loading image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri);
-                        } else {
-                            args.photo = null;
-                            args.photoIcon = null;
-                            Log.d(ContactsAsyncHelper.this, "Problem with image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri +
-                                    ", using default image.");
-                        }
-                    } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                Log.e(this, "Unable to close input stream.", e);
+                    CachedPhoto cachedPhoto = null;
+                    final Point bounds = getPhotoBounds(args.context, args.displayPhotoUri);
+                    if (bounds != null) {
+                        final int sampleSize = getSampleSize(bounds.x, bounds.y, args.targetSize);
+                        final PhotoKey key = new PhotoKey(args.displayPhotoUri, sampleSize);
+                        cachedPhoto = sPhotoCache.get(key);
+                        if (cachedPhoto == null) {
+                            final Bitmap photo = decodePhoto(args.context, args.displayPhotoUri,
+                                    bounds, sampleSize);
+                            if (photo != null) {
+                                cachedPhoto = new CachedPhoto(photo, getPhotoIconWhenAppropriate(
+                                        args.context, args.displayPhotoUri, bounds, sampleSize,
+                                        photo));
+                                sPhotoCache.put(key, cachedPhoto);
                             }
                         }
                     }
+
+                    if (cachedPhoto != null) {
+                        sPhotosInUse = true;
+                        args.photo = new BitmapDrawable(args.context.getResources(),
+                                cachedPhoto.photo);
+                        args.photoIcon = cachedPhoto.photoIcon;
+
+                        Log.d(ContactsAsyncHelper.this, "Loading image: " + msg.arg1 +
+                                " token: " + msg.what + " image URI: " + args.displayPhotoUri);
+                    } else {
+                        args.photo = null;
+                        args.photoIcon = null;
+                        Log.d(ContactsAsyncHelper.this, "Problem with image: " + msg.arg1 +
+                                " token: " + msg.what + " image URI: " + args.displayPhotoUri +
+                                ", using default image.");
+                    }
                     break;
                 default:
             }
@@ -161,17 +256,93 @@ public class ContactsAsyncHelper {
         }
 
         /**
-         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
-         * return null when the given Drawable isn't BitmapDrawable, or if the system fails to
-         * create a scaled Bitmap for the Drawable.
+         * Returns the dimensions of the photo at the given uri, or null if it cannot be read.
          */
-        private Bitmap getPhotoIconWhenAppropriate(Context context, Drawable photo) {
-            if (!(photo instanceof BitmapDrawable)) {
+        private Point getPhotoBounds(Context context, Uri displayPhotoUri) {
+            Point bounds = sPhotoBounds.get(displayPhotoUri);
+            if (bounds == null) {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                decodeStream(context, displayPhotoUri, options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    return null;
+                }
+                bounds = new Point(options.outWidth, options.outHeight);
+                sPhotoBounds.put(displayPhotoUri, bounds);
+            }
+            return bounds;
+        }
+
+        /**
+         * Decodes the photo at the given uri with the given sample size, reusing the memory of a
+         * previously evicted photo where possible.
+         *
+         * @param bounds The dimensions of the photo.
+         * @param sampleSize The sample size from {@link #getSampleSize}.
+         */
+        private Bitmap decodePhoto(Context context, Uri displayPhotoUri, Point bounds,
+                int sampleSize) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inSampleSize = sampleSize;
+            options.inBitmap = takeReusableBitmap(
+                    (bounds.x + sampleSize - 1) / sampleSize,
+                    (bounds.y + sampleSize - 1) / sampleSize);
+            if (options.inBitmap != null) {
+                try {
+                    return decodeStream(context, displayPhotoUri, options);
+                } catch (IllegalArgumentException e) {
+                    Log.d(this, "Unable to reuse bitmap, decoding into a new one.");
+                    options.inBitmap = null;
+                }
+            }
+            return decodeStream(context, displayPhotoUri, options);
+        }
+
+        private Bitmap decodeStream(Context context, Uri uri, BitmapFactory.Options options) {
+            InputStream inputStream = null;
+            try {
+                inputStream = context.getContentResolver().openInputStream(uri);
+                return BitmapFactory.decodeStream(inputStream, null, options);
+            } catch (FileNotFoundException | SecurityException e) {
+                Log.e(this, "Error opening photo input stream", e);
                 return null;
+            } finally {
+                if (inputStream != null) {
+                    try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        Log.e(this, "Unable to close input stream.", e);
+                    }
+                }
             }
+        }
+
+        /**
+         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
+         * return null if the system fails to create a scaled Bitmap for the photo.
+         *
+         * The icon is decoded at its own, smaller sample size rather than scaled down from the
+         * full photo, unless both need the same sample size.
+         *
+         * @param bounds The dimensions of the photo.
+         * @param photoSampleSize The sample size photo was decoded at.
+         * @param photo The decoded photo.
+         */
+        private Bitmap getPhotoIconWhenAppropriate(Context context, Uri displayPhotoUri,
+                Point bounds, int photoSampleSize, Bitmap photo) {
             int iconSize = context.getResources()
                     .getDimensionPixelSize(R.dimen.notification_icon_size);
-            Bitmap orgBitmap = ((BitmapDrawable) photo).getBitmap();
+            Bitmap orgBitmap = photo;
+            final int iconSampleSize = getSampleSize(bounds.x, bounds.y, iconSize);
+            if (iconSampleSize != photoSampleSize) {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = iconSampleSize;
+                final Bitmap iconBitmap = decodeStream(context, displayPhotoUri, options);
+                if (iconBitmap != null) {
+                    orgBitmap = iconBitmap;
+                }
+            }
             int orgWidth = orgBitmap.getWidth();
             int orgHeight = orgBitmap.getHeight();
             int longerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
@@ -214,6 +385,8 @@ public class ContactsAsyncHelper {
      * {@link OnImageLoadCompleteListener#onImageLoadComplete(int, Drawable, Bitmap, Object)}
      * @param context Context object used to do the time-consuming operation.
      * @param displayPhotoUri Uri to be used to fetch the photo
+     * @param targetSize Size in pixels of the largest view the photo will be shown in. The photo
+     * is downsampled to no less than this size. 0 loads the photo at full resolution.
      * @param listener Callback object which will be used when the asynchronous load is done.
      * Can be null, which means only the asynchronous load is done while there's no way to
      * obtain the loaded photos.
@@ -222,7 +395,7 @@ public class ContactsAsyncHelper {
      * Bitmap, Object)}. Can be null, at which the callback will also has null for the argument.
      */
     public static final void startObtainPhotoAsync(int token, Context context, Uri displayPhotoUri,
-            OnImageLoadCompleteListener listener, Object cookie) {
+            int targetSize, OnImageLoadCompleteListener listener, Object cookie) {
         // in case the source caller info is null, the URI will be null as well.
         // just update using the placeholder image in this case.
         if (displayPhotoUri == null) {
@@ -238,6 +411,7 @@ public class ContactsAsyncHelper {
         args.cookie = cookie;
         args.context = context;
         args.displayPhotoUri = displayPhotoUri;
+        args.targetSize = targetSize;
         args.listener = listener;
 
         // setup message arguments
@@ -252,5 +426,81 @@ public class ContactsAsyncHelper {
         sThreadHandler.sendMessage(msg);
     }
 
+    /**
+     * Called once the in-call UI no longer displays any of the photos loaded by this class, so
+     * that evicted photos can be decoded into again.
+     */
+    public static void onPhotosReleased() {
+        sPhotosInUse = false;
+    }
 
+    /**
+     * Shrinks the photo cache in response to
+     * {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public static void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            sPhotoCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            sPhotoCache.trimToSize(sPhotoCache.maxSize() / 2);
+        }
+
+        synchronized (sReusableBitmaps) {
+            sReusableBitmaps.clear();
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            sPhotoBounds.evictAll();
+        }
+    }
+
+    /**
+     * Returns the largest power of two sample size which keeps the longer edge of the photo at
+     * or above targetSize.
+     */
+    private static int getSampleSize(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        if (targetSize <= 0) {
+            return sampleSize;
+        }
+        final int longerEdge = Math.max(width, height);
+        while (longerEdge / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int getPhotoCacheBudget() {
+        return (int) Math.min(MAX_PHOTO_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    private static void offerReusableBitmap(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || sPhotosInUse) {
+            return;
+        }
+        synchronized (sReusableBitmaps) {
+            if (sReusableBitmaps.size() < MAX_REUSABLE_BITMAPS) {
+                sReusableBitmaps.add(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Returns a reusable bitmap large enough to decode a width x height ARGB_8888 photo into, or
+     * null if there is none.
+     */
+    private static Bitmap takeReusableBitmap(int width, int height) {
+        final int byteCount = width * height * 4;
+        synchronized (sReusableBitmaps) {
+            for (int i = 0; i < sReusableBitmaps.size(); i++) {
+                final Bitmap bitmap = sReusableBitmaps.get(i);
+                if (bitmap.getAllocationByteCount() >= byteCount) {
+                    sReusableBitmaps.remove(i);
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
 }
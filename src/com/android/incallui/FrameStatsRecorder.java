@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+
+/**
+ * Records how long it takes from an incoming call to the first drawn frame of the answer UI, how
+ * smoothly the answer widget animates, and how long it takes from answering or accepting a video
+ * call to the first frame of the local camera preview. Also records how long the stages of
+ * {@link InCallPresenter#setUp} take, and how long it takes from the service being bound to the
+ * first incoming call being ready to ring. All methods must be called on the main thread.
+ *
+ * The recorded data is printed as part of the InCallServiceImpl dump output.
+ */
+public class FrameStatsRecorder {
+
+    private static final int MAX_LATENCY_SAMPLES = 16;
+    private static final int MAX_FRAME_SAMPLES = 128;
+    private static final float DEFAULT_REFRESH_RATE = 60.0f;
+    private static final long NANOS_PER_MS = 1000000;
+
+    private static FrameStatsRecorder sInstance;
+
+    // Milestones of the incoming call currently being measured, in uptime milliseconds.
+    private long mIncomingCallTime = -1;
+    private long mActivityCreatedTime = -1;
+    private long mActivityResumedTime = -1;
+
+    // Ring buffer of incoming call to first answer frame latencies.
+    private final long[] mFirstFrameLatencies = new long[MAX_LATENCY_SAMPLES];
+    private int mLatencyCount;
+    private long mLastActivityCreatedLatency = -1;
+    private long mLastActivityResumedLatency = -1;
+
+    // When the pending video answer or upgrade was accepted, in uptime milliseconds.
+    private long mVideoAnswerTime = -1;
+    // Ring buffer of video answer to first preview frame latencies.
+    private final long[] mFirstPreviewFrameLatencies = new long[MAX_LATENCY_SAMPLES];
+    private int mPreviewLatencyCount;
+
+    // When the in-call service was last bound, in uptime milliseconds, until the first call.
+    private long mServiceBindTime = -1;
+    // Ring buffer of service bind to incoming call ready latencies.
+    private final long[] mRingReadyLatencies = new long[MAX_LATENCY_SAMPLES];
+    private int mRingReadyLatencyCount;
+
+    // Ring buffers of the durations of the critical and deferred set up stages.
+    private final long[] mCriticalSetUpDurations = new long[MAX_LATENCY_SAMPLES];
+    private int mCriticalSetUpCount;
+    private final long[] mDeferredSetUpDurations = new long[MAX_LATENCY_SAMPLES];
+    private int mDeferredSetUpCount;
+    private String mLastDeferredSetUpTrigger;
+
+    // Ring buffer of frame durations while answer animations are running.
+    private final long[] mFrameDurations = new long[MAX_FRAME_SAMPLES];
+    private long mFrameCount;
+    private long mDroppedFrameCount;
+    private long mMaxFrameDuration;
+    private int mAnimationSessionCount;
+
+    private boolean mTrackingFrames;
+    private long mLastFrameTimeNanos;
+    private long mFrameIntervalNanos = (long) (1000 * NANOS_PER_MS / DEFAULT_REFRESH_RATE);
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mTrackingFrames) {
+                return;
+            }
+            if (mLastFrameTimeNanos != 0) {
+                recordFrame(frameTimeNanos - mLastFrameTimeNanos);
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    public static synchronized FrameStatsRecorder getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameStatsRecorder();
+        }
+        return sInstance;
+    }
+
+    private FrameStatsRecorder() {
+    }
+
+    /**
+     * Starts measuring the time until an incoming call is ready to ring.
+     */
+    public void onServiceBind() {
+        mServiceBindTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Called once an incoming call has its notification and the UI is starting. Only the first
+     * call after the service is bound is recorded.
+     */
+    public void onRingReady() {
+        if (mServiceBindTime < 0) {
+            return;
+        }
+        final long latency = SystemClock.uptimeMillis() - mServiceBindTime;
+        mRingReadyLatencies[mRingReadyLatencyCount % MAX_LATENCY_SAMPLES] = latency;
+        mRingReadyLatencyCount++;
+        mServiceBindTime = -1;
+        Log.d(this, "Service bind to incoming call ready: " + latency + "ms");
+    }
+
+    /**
+     * Stops measuring the time to an incoming call being ready, because the service was bound
+     * for another call.
+     */
+    public void cancelRingReady() {
+        mServiceBindTime = -1;
+    }
+
+    public void onCriticalSetUpComplete(long durationMs) {
+        mCriticalSetUpDurations[mCriticalSetUpCount % MAX_LATENCY_SAMPLES] = durationMs;
+        mCriticalSetUpCount++;
+    }
+
+    /**
+     * @param trigger What caused the deferred stage to run, for the dump output.
+     */
+    public void onDeferredSetUpComplete(long durationMs, String trigger) {
+        mDeferredSetUpDurations[mDeferredSetUpCount % MAX_LATENCY_SAMPLES] = durationMs;
+        mDeferredSetUpCount++;
+        mLastDeferredSetUpTrigger = trigger;
+    }
+
+    /**
+     * Starts measuring the time to the first frame of the answer UI.
+     */
+    public void onIncomingCall() {
+        mIncomingCallTime = SystemClock.uptimeMillis();
+        mActivityCreatedTime = -1;
+        mActivityResumedTime = -1;
+    }
+
+    /**
+     * Stops measuring the time to the first answer frame, because the call is no longer ringing.
+     * Otherwise a call answered or missed before the answer UI drew would be timed up to the next
+     * time the answer widget draws.
+     */
+    public void onIncomingCallEnded() {
+        mIncomingCallTime = -1;
+        mActivityCreatedTime = -1;
+        mActivityResumedTime = -1;
+    }
+
+    public void onActivityCreated() {
+        if (mIncomingCallTime >= 0 && mActivityCreatedTime < 0) {
+            mActivityCreatedTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    public void onActivityResumed() {
+        if (mIncomingCallTime >= 0 && mActivityResumedTime < 0) {
+            mActivityResumedTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    /**
+     * Called whenever the answer widget draws. Only the first draw after an incoming call is
+     * recorded.
+     */
+    public void onAnswerUiDrawn() {
+        if (mIncomingCallTime < 0) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        final long latency = now - mIncomingCallTime;
+        mFirstFrameLatencies[mLatencyCount % MAX_LATENCY_SAMPLES] = latency;
+        mLatencyCount++;
+        mLastActivityCreatedLatency =
+                mActivityCreatedTime < 0 ? -1 : mActivityCreatedTime - mIncomingCallTime;
+        mLastActivityResumedLatency =
+                mActivityResumedTime < 0 ? -1 : mActivityResumedTime - mIncomingCallTime;
+        mIncomingCallTime = -1;
+        Log.d(this, "Incoming call to first answer frame: " + latency + "ms");
+    }
+
+    /**
+     * Starts measuring the time to the first frame of the local camera preview, when a call is
+     * answered as a video call or an upgrade to video is accepted.
+     */
+    public void onVideoAnswered() {
+        mVideoAnswerTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Stops measuring the time to the first preview frame, because the call left video mode
+     * before the preview showed a frame.
+     */
+    public void onVideoModeExited() {
+        mVideoAnswerTime = -1;
+    }
+
+    /**
+     * Called whenever the local camera preview has a new frame. Only the first frame after a
+     * video answer is recorded.
+     */
+    public void onPreviewFrame() {
+        if (mVideoAnswerTime < 0) {
+            return;
+        }
+        final long latency = SystemClock.uptimeMillis() - mVideoAnswerTime;
+        mFirstPreviewFrameLatencies[mPreviewLatencyCount % MAX_LATENCY_SAMPLES] = latency;
+        mPreviewLatencyCount++;
+        mVideoAnswerTime = -1;
+        Log.d(this, "Video answer to first preview frame: " + latency + "ms");
+    }
+
+    /**
+     * Starts recording frame durations, for example when the answer widget starts animating.
+     *
+     * @param refreshRate The refresh rate of the display, or 0 if unknown.
+     */
+    public void startFrameTracking(float refreshRate) {
+        if (mTrackingFrames) {
+            return;
+        }
+        if (refreshRate > 0) {
+            mFrameIntervalNanos = (long) (1000 * NANOS_PER_MS / refreshRate);
+        }
+        mTrackingFrames = true;
+        mLastFrameTimeNanos = 0;
+        mAnimationSessionCount++;
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    public void stopFrameTracking() {
+        if (!mTrackingFrames) {
+            return;
+        }
+        mTrackingFrames = false;
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+    }
+
+    private void recordFrame(long durationNanos) {
+        mFrameDurations[(int) (mFrameCount % MAX_FRAME_SAMPLES)] = durationNanos;
+        mFrameCount++;
+        if (durationNanos > mMaxFrameDuration) {
+            mMaxFrameDuration = durationNanos;
+        }
+        // A frame that took longer than one interval means the frames in between were skipped.
+        // Allow half an interval of slack for vsync jitter.
+        final long skipped = (durationNanos + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+        if (skipped > 0) {
+            mDroppedFrameCount += skipped;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("FrameStatsRecorder:");
+
+        if (mCriticalSetUpCount > 0) {
+            dumpLatencies(pw, "criticalSetUpMs", mCriticalSetUpDurations, mCriticalSetUpCount);
+        }
+        if (mDeferredSetUpCount > 0) {
+            dumpLatencies(pw, "deferredSetUpMs", mDeferredSetUpDurations, mDeferredSetUpCount);
+            pw.println("  lastDeferredSetUpTrigger: " + mLastDeferredSetUpTrigger);
+        }
+        if (mRingReadyLatencyCount > 0) {
+            dumpLatencies(pw, "bindToRingReadyMs", mRingReadyLatencies, mRingReadyLatencyCount);
+        }
+
+        if (mLatencyCount > 0) {
+            dumpLatencies(pw, "incomingToFirstFrameMs", mFirstFrameLatencies, mLatencyCount);
+            pw.println("  lastIncomingToActivityCreatedMs: " + mLastActivityCreatedLatency);
+            pw.println("  lastIncomingToActivityResumedMs: " + mLastActivityResumedLatency);
+        }
+        if (mPreviewLatencyCount > 0) {
+            dumpLatencies(pw, "videoAnswerToFirstPreviewFrameMs", mFirstPreviewFrameLatencies,
+                    mPreviewLatencyCount);
+        }
+
+        pw.println("  animationSessions: " + mAnimationSessionCount);
+        pw.println("  frames: " + mFrameCount);
+        pw.println("  droppedFrames: " + mDroppedFrameCount);
+        pw.println("  maxFrameMs: " + (mMaxFrameDuration / NANOS_PER_MS));
+
+        final int frames = (int) Math.min(mFrameCount, MAX_FRAME_SAMPLES);
+        if (frames > 0) {
+            final StringBuilder sb = new StringBuilder();
+            for (long i = mFrameCount - frames; i < mFrameCount; i++) {
+                sb.append(mFrameDurations[(int) (i % MAX_FRAME_SAMPLES)] / NANOS_PER_MS)
+                        .append(' ');
+            }
+            pw.println("  recentFrameMs: " + sb.toString().trim());
+        }
+    }
+
+    private static void dumpLatencies(PrintWriter pw, String name, long[] samples, int count) {
+        final int latencies = Math.min(count, MAX_LATENCY_SAMPLES);
+        final StringBuilder sb = new StringBuilder();
+        long total = 0;
+        for (int i = count - latencies; i < count; i++) {
+            final long latency = samples[i % MAX_LATENCY_SAMPLES];
+            total += latency;
+            sb.append(latency).append(' ');
+        }
+        pw.println("  " + name + ": " + sb.toString().trim());
+        pw.println("  avg" + Character.toUpperCase(name.charAt(0)) + name.substring(1) + ": "
+                + (total / latencies));
+    }
+}
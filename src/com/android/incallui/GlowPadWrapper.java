@@ -17,10 +17,12 @@
 package com.android.incallui;
 
 import android.content.Context;
+import android.graphics.Canvas;
 import android.os.Handler;
 import android.os.Message;
 import android.telecom.VideoProfile;
 import android.util.AttributeSet;
+import android.view.Display;
 import android.view.View;
 
 import com.android.incallui.widget.multiwaveview.GlowPadView;
@@ -67,6 +69,30 @@ public class GlowPadWrapper extends GlowPadView implements GlowPadView.OnTrigger
         setOnTriggerListener(this);
     }
 
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        FrameStatsRecorder.getInstance().onAnswerUiDrawn();
+    }
+
+    @Override
+    protected void onAnimationsStarted() {
+        final Display display = getDisplay();
+        FrameStatsRecorder.getInstance().startFrameTracking(
+                display != null ? display.getRefreshRate() : 0);
+    }
+
+    @Override
+    protected void onAnimationsEnded() {
+        FrameStatsRecorder.getInstance().stopFrameTracking();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        FrameStatsRecorder.getInstance().stopFrameTracking();
+    }
+
     public void startPing() {
         Log.d(this, "startPing");
         mPingEnabled = true;
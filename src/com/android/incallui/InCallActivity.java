@@ -113,6 +113,7 @@ public class InCallActivity extends Activity {
     @Override
     protected void onCreate(Bundle icicle) {
         Log.d(this, "onCreate()...  this = " + this);
+        FrameStatsRecorder.getInstance().onActivityCreated();
 
         super.onCreate(icicle);
 
@@ -199,6 +200,7 @@ public class InCallActivity extends Activity {
     protected void onResume() {
         Log.i(this, "onResume()...");
         super.onResume();
+        FrameStatsRecorder.getInstance().onActivityResumed();
 
         mIsForegroundActivity = true;
 
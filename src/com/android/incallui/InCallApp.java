@@ -58,6 +58,12 @@ public class InCallApp extends Application {
         super.onConfigurationChanged(newConfig);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ContactsAsyncHelper.onTrimMemory(level);
+    }
+
     /**
      * Accepts broadcatst Intents which will be prepared by {@link StatusBarNotifier} and thus
      * sent from framework's notification mechanism (which is outside Phone context).
@@ -22,14 +22,29 @@ import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.AsyncTask;
 import android.util.Size;
 
-import java.lang.String;
-
 /**
  * Used to track which camera is used for outgoing video.
  */
 public class InCallCameraManager {
+    private static final String TAG = InCallCameraManager.class.getSimpleName();
+
+    /**
+     * The cameras of the device. They do not change while the process is running, so they are
+     * looked up once, ideally ahead of time by {@link #warmUp}. Camera service calls involve IPC
+     * and should be kept off the path of answering or upgrading to a video call.
+     */
+    private static class CameraInfo {
+        String frontFacingCameraId;
+        String rearFacingCameraId;
+        float frontFacingCameraAspectRatio;
+        float rearFacingCameraAspectRatio;
+    }
+
+    private static CameraInfo sCameraInfo;
+    private static boolean sWarmUpStarted;
 
     /**
      * The camera ID for the front facing camera.
@@ -63,7 +78,35 @@ public class InCallCameraManager {
      */
     public InCallCameraManager(Context context) {
         mUseFrontFacingCamera = true;
-        initializeCameraList(context);
+        final CameraInfo info = getCameraInfo(context);
+        if (info != null) {
+            mFrontFacingCameraId = info.frontFacingCameraId;
+            mRearFacingCameraId = info.rearFacingCameraId;
+            mFrontFacingCameraAspectRatio = info.frontFacingCameraAspectRatio;
+            mRearFacingCameraAspectRatio = info.rearFacingCameraAspectRatio;
+        }
+    }
+
+    /**
+     * Looks up the cameras in the background, if that hasn't been done yet. Called when a video
+     * call or video upgrade request shows up, before the cameras are needed.
+     *
+     * @param context The context.
+     */
+    public static void warmUp(Context context) {
+        synchronized (InCallCameraManager.class) {
+            if (sCameraInfo != null || sWarmUpStarted || context == null) {
+                return;
+            }
+            sWarmUpStarted = true;
+        }
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                getCameraInfo(appContext);
+            }
+        });
     }
 
     /**
@@ -97,14 +140,41 @@ public class InCallCameraManager {
         }
     }
 
+    /**
+     * Returns the aspect ratio (width / height) of the largest preview size of the active camera,
+     * or 0 if it is not known. Telephony reports the actual dimensions of the camera once it has
+     * been set, but this lets the preview be laid out before then.
+     */
+    public float getActiveCameraAspectRatio() {
+        if (mUseFrontFacingCamera) {
+            return mFrontFacingCameraAspectRatio;
+        } else {
+            return mRearFacingCameraAspectRatio;
+        }
+    }
+
+    /**
+     * Returns the camera ID and aspect ratio for the front and rear cameras, looking them up if
+     * that hasn't been done yet.
+     *
+     * @param context The context.
+     */
+    private static synchronized CameraInfo getCameraInfo(Context context) {
+        if (sCameraInfo == null) {
+            sCameraInfo = loadCameraInfo(context);
+        }
+        return sCameraInfo;
+    }
+
     /**
      * Get the camera ID and aspect ratio for the front and rear cameras.
      *
      * @param context The context.
+     * @return The cameras, or {@code null} if they could not be accessed.
      */
-    private void initializeCameraList(Context context) {
+    private static CameraInfo loadCameraInfo(Context context) {
         if (context == null) {
-            return;
+            return null;
         }
 
         CameraManager cameraManager = null;
@@ -112,23 +182,24 @@ public class InCallCameraManager {
             cameraManager = (CameraManager) context.getSystemService(
                     Context.CAMERA_SERVICE);
         } catch (Exception e) {
-            Log.e(this, "Could not get camera service.");
-            return;
+            Log.e(TAG, "Could not get camera service.");
+            return null;
         }
 
         if (cameraManager == null) {
-            return;
+            return null;
         }
 
         String[] cameraIds = {};
         try {
             cameraIds = cameraManager.getCameraIdList();
         } catch (CameraAccessException e) {
-            Log.d(this, "Could not access camera: "+e);
+            Log.d(TAG, "Could not access camera: "+e);
             // Camera disabled by device policy.
-            return;
+            return null;
         }
 
+        final CameraInfo info = new CameraInfo();
         for (int i = 0; i < cameraIds.length; i++) {
             CameraCharacteristics c = null;
             try {
@@ -141,11 +212,39 @@ public class InCallCameraManager {
             if (c != null) {
                 int facingCharacteristic = c.get(CameraCharacteristics.LENS_FACING);
                 if (facingCharacteristic == CameraCharacteristics.LENS_FACING_FRONT) {
-                    mFrontFacingCameraId = cameraIds[i];
+                    info.frontFacingCameraId = cameraIds[i];
+                    info.frontFacingCameraAspectRatio = getPreviewAspectRatio(c);
                 } else if (facingCharacteristic == CameraCharacteristics.LENS_FACING_BACK) {
-                    mRearFacingCameraId = cameraIds[i];
+                    info.rearFacingCameraId = cameraIds[i];
+                    info.rearFacingCameraAspectRatio = getPreviewAspectRatio(c);
                 }
             }
         }
+        return info;
+    }
+
+    /**
+     * Returns the aspect ratio of the largest size the camera can preview to a
+     * {@link SurfaceTexture}, or 0 if there is none.
+     */
+    private static float getPreviewAspectRatio(CameraCharacteristics c) {
+        final StreamConfigurationMap map =
+                c.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            return 0;
+        }
+        final Size[] sizes = map.getOutputSizes(SurfaceTexture.class);
+        if (sizes == null) {
+            return 0;
+        }
+        Size largest = null;
+        for (Size size : sizes) {
+            if (largest == null || (long) size.getWidth() * size.getHeight()
+                    > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
+            }
+        }
+        return largest == null || largest.getHeight() == 0
+                ? 0 : (float) largest.getWidth() / largest.getHeight();
     }
 }
@@ -1,6 +1,10 @@
 package com.android.incallui;
 
 import android.content.res.Resources;
+import android.text.format.DateUtils;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
 
 /**
  * Methods to parse time and date information in the InCallUi
@@ -53,4 +57,144 @@ public class InCallDateUtils {
         return duration.toString();
     }
 
+    /**
+     * Formats elapsed time the way {@link DateUtils#formatElapsedTime(long)} does, but into a
+     * reusable char buffer, so that updating the call timer every second does not allocate.
+     * The platform's "MM:SS" and "H:MM:SS" templates and the locale's digits are looked up once
+     * per locale. Must only be used on one thread.
+     */
+    public static class ElapsedTimeFormatter {
+        // Long enough for any elapsed time in any of the platform's templates.
+        private static final int MAX_LENGTH = 32;
+        // Template entries at or above FIELD are fields: FIELD + argument * 4 + minimum digits.
+        private static final int FIELD = 0x10000;
+
+        private final char[] mBuffer = new char[MAX_LENGTH];
+        private Locale mLocale;
+        private char mZeroDigit;
+        private int[] mHoursTemplate;
+        private int[] mMinutesTemplate;
+
+        /**
+         * Formats {@code elapsedSeconds} into {@link #getBuffer()} and returns the length of the
+         * result.
+         */
+        public int format(Resources res, long elapsedSeconds) {
+            final Locale locale = res.getConfiguration().locale;
+            if (locale != mLocale) {
+                // The configuration changed; look the templates up again.
+                mLocale = locale;
+                mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+                mHoursTemplate = compile(res.getString(
+                        com.android.internal.R.string.elapsed_time_short_format_h_mm_ss));
+                mMinutesTemplate = compile(res.getString(
+                        com.android.internal.R.string.elapsed_time_short_format_mm_ss));
+            }
+
+            long hours = 0;
+            long minutes = 0;
+            if (elapsedSeconds >= 3600) {
+                hours = elapsedSeconds / 3600;
+                elapsedSeconds -= hours * 3600;
+            }
+            if (elapsedSeconds >= 60) {
+                minutes = elapsedSeconds / 60;
+                elapsedSeconds -= minutes * 60;
+            }
+            final long seconds = elapsedSeconds;
+
+            final int[] template = hours > 0 ? mHoursTemplate : mMinutesTemplate;
+            if (template == null) {
+                // A template we don't understand; let the platform format it.
+                final String formatted = DateUtils.formatElapsedTime(
+                        hours * 3600 + minutes * 60 + seconds);
+                final int length = Math.min(formatted.length(), MAX_LENGTH);
+                formatted.getChars(0, length, mBuffer, 0);
+                return length;
+            }
+
+            int length = 0;
+            for (int i = 0; i < template.length; i++) {
+                final int entry = template[i];
+                if (entry < FIELD) {
+                    if (length < MAX_LENGTH) {
+                        mBuffer[length++] = (char) entry;
+                    }
+                    continue;
+                }
+                final int argument = (entry - FIELD) / 4;
+                final int minDigits = (entry - FIELD) % 4;
+                final long value;
+                if (hours > 0) {
+                    value = argument == 1 ? hours : argument == 2 ? minutes : seconds;
+                } else {
+                    value = argument == 1 ? minutes : seconds;
+                }
+                length = appendNumber(value, minDigits, length);
+            }
+            return length;
+        }
+
+        public char[] getBuffer() {
+            return mBuffer;
+        }
+
+        private int appendNumber(long value, int minDigits, int length) {
+            int digits = 1;
+            for (long v = value / 10; v > 0; v /= 10) {
+                digits++;
+            }
+            digits = Math.max(digits, minDigits);
+            if (length + digits > MAX_LENGTH) {
+                return length;
+            }
+            for (int i = length + digits - 1; i >= length; i--) {
+                mBuffer[i] = (char) (mZeroDigit + (value % 10));
+                value /= 10;
+            }
+            return length + digits;
+        }
+
+        /**
+         * Compiles a template made of literal text and "%n$d" / "%n$0md" fields, or returns null
+         * if it contains anything else.
+         */
+        private static int[] compile(String template) {
+            final int[] compiled = new int[template.length()];
+            int count = 0;
+            int i = 0;
+            while (i < template.length()) {
+                final char c = template.charAt(i++);
+                if (c != '%') {
+                    compiled[count++] = c;
+                    continue;
+                }
+                if (i < template.length() && template.charAt(i) == '%') {
+                    compiled[count++] = '%';
+                    i++;
+                    continue;
+                }
+                // Expect <argument>$[0<digits>]d
+                if (i + 1 >= template.length() || template.charAt(i + 1) != '$') {
+                    return null;
+                }
+                final int argument = template.charAt(i) - '0';
+                i += 2;
+                int minDigits = 1;
+                if (i + 1 < template.length() && template.charAt(i) == '0') {
+                    minDigits = template.charAt(i + 1) - '0';
+                    i += 2;
+                }
+                if (argument < 1 || argument > 3 || minDigits < 1 || minDigits > 3
+                        || i >= template.length() || template.charAt(i) != 'd') {
+                    return null;
+                }
+                i++;
+                compiled[count++] = FIELD + argument * 4 + minDigits;
+            }
+            final int[] result = new int[count];
+            System.arraycopy(compiled, 0, result, 0, count);
+            return result;
+        }
+    }
 }
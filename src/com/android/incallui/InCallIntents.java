@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import com.android.incallui.InCallApp.NotificationBroadcastReceiver;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Holds the Intents, PendingIntents and notification actions used to launch the in-call UI and
+ * to act on calls from the notification. They are created once per {@link InCallPresenter}
+ * setup rather than every time the UI is started or a notification is built.
+ *
+ * The returned objects are shared and must not be modified.
+ */
+public class InCallIntents {
+    private static final int SHOW_DIALPAD = 1;
+    private static final int NEW_OUTGOING_CALL = 1 << 1;
+    private static final int SHOW_CIRCULAR_REVEAL = 1 << 2;
+    private static final int NEW_TASK = 1 << 3;
+
+    private final Context mContext;
+    // In-call activity intents, indexed by a combination of the flags above.
+    private final Intent[] mInCallIntents = new Intent[1 << 4];
+
+    private final PendingIntent mLaunchPendingIntent;
+    private final Notification.Action mAnswerAction;
+    private final Notification.Action mAnswerVoiceAction;
+    private final Notification.Action mAnswerVideoAction;
+    private final Notification.Action mDismissAction;
+    private final Notification.Action mHangupAction;
+    private final Notification.Action mAcceptUpgradeRequestAction;
+    private final Notification.Action mDismissUpgradeRequestAction;
+
+    public InCallIntents(Context context) {
+        Preconditions.checkNotNull(context);
+        mContext = context;
+
+        // PendingIntent that can be used to launch the InCallActivity.  The
+        // system fires off this intent if the user pulls down the windowshade
+        // and clicks the notification's expanded view.  It's also used to
+        // launch the InCallActivity immediately when when there's an incoming
+        // call (see the "fullScreenIntent" field in StatusBarNotifier).
+        mLaunchPendingIntent = PendingIntent.getActivity(mContext, 0,
+                getInCallIntent(false /* showDialpad */, false /* newOutgoingCall */,
+                        false /* showCircularReveal */, true /* newTask */), 0);
+
+        final PendingIntent answerVoice =
+                createNotificationPendingIntent(InCallApp.ACTION_ANSWER_VOICE_INCOMING_CALL);
+        final PendingIntent answerVideo =
+                createNotificationPendingIntent(InCallApp.ACTION_ANSWER_VIDEO_INCOMING_CALL);
+        final PendingIntent decline =
+                createNotificationPendingIntent(InCallApp.ACTION_DECLINE_INCOMING_CALL);
+        final PendingIntent hangup =
+                createNotificationPendingIntent(InCallApp.ACTION_HANG_UP_ONGOING_CALL);
+
+        mAnswerAction = new Notification.Action(R.drawable.ic_call_white_24dp,
+                mContext.getText(R.string.notification_action_answer), answerVoice);
+        mAnswerVoiceAction = new Notification.Action(R.drawable.ic_call_white_24dp,
+                mContext.getText(R.string.notification_action_answer_voice), answerVoice);
+        mAnswerVideoAction = new Notification.Action(R.drawable.ic_videocam,
+                mContext.getText(R.string.notification_action_answer_video), answerVideo);
+        mDismissAction = new Notification.Action(R.drawable.ic_close_dk,
+                mContext.getText(R.string.notification_action_dismiss), decline);
+        mHangupAction = new Notification.Action(R.drawable.ic_call_end_white_24dp,
+                mContext.getText(R.string.notification_action_end_call), hangup);
+        // The upgrade request actions have always been sent as voice answers.
+        mAcceptUpgradeRequestAction = new Notification.Action(0,
+                mContext.getText(R.string.notification_action_accept), answerVoice);
+        mDismissUpgradeRequestAction = new Notification.Action(0,
+                mContext.getText(R.string.notification_action_dismiss), answerVoice);
+    }
+
+    /**
+     * Returns the intent which starts the InCallActivity with the given options.
+     */
+    public Intent getInCallIntent(boolean showDialpad, boolean newOutgoingCall,
+            boolean showCircularReveal, boolean newTask) {
+        final int index = (showDialpad ? SHOW_DIALPAD : 0)
+                | (newOutgoingCall ? NEW_OUTGOING_CALL : 0)
+                | (showCircularReveal ? SHOW_CIRCULAR_REVEAL : 0)
+                | (newTask ? NEW_TASK : 0);
+        Intent intent = mInCallIntents[index];
+        if (intent == null) {
+            intent = new Intent(Intent.ACTION_MAIN, null);
+            intent.setFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS
+                    | Intent.FLAG_ACTIVITY_NO_USER_ACTION);
+            if (newTask) {
+                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            }
+
+            intent.setClass(mContext, InCallActivity.class);
+            if (showDialpad) {
+                intent.putExtra(InCallActivity.SHOW_DIALPAD_EXTRA, true);
+            }
+            intent.putExtra(InCallActivity.NEW_OUTGOING_CALL_EXTRA, newOutgoingCall);
+            intent.putExtra(InCallActivity.SHOW_CIRCULAR_REVEAL_EXTRA, showCircularReveal);
+            mInCallIntents[index] = intent;
+        }
+        return intent;
+    }
+
+    public PendingIntent getLaunchPendingIntent() {
+        return mLaunchPendingIntent;
+    }
+
+    public Notification.Action getAnswerAction() {
+        return mAnswerAction;
+    }
+
+    public Notification.Action getAnswerVoiceAction() {
+        return mAnswerVoiceAction;
+    }
+
+    public Notification.Action getAnswerVideoAction() {
+        return mAnswerVideoAction;
+    }
+
+    public Notification.Action getDismissAction() {
+        return mDismissAction;
+    }
+
+    public Notification.Action getHangupAction() {
+        return mHangupAction;
+    }
+
+    public Notification.Action getAcceptUpgradeRequestAction() {
+        return mAcceptUpgradeRequestAction;
+    }
+
+    public Notification.Action getDismissUpgradeRequestAction() {
+        return mDismissUpgradeRequestAction;
+    }
+
+    /**
+     * Returns PendingIntent for answering a phone call. This will typically be used from
+     * Notification context.
+     */
+    private PendingIntent createNotificationPendingIntent(String action) {
+        final Intent intent = new Intent(action, null,
+                mContext, NotificationBroadcastReceiver.class);
+        return PendingIntent.getBroadcast(mContext, 0, intent, 0);
+    }
+}
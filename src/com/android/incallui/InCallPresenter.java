@@ -24,6 +24,10 @@ import android.graphics.Point;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.telecom.DisconnectCause;
 import android.telecom.PhoneAccount;
 import android.telecom.Phone;
@@ -39,14 +43,14 @@ import com.google.common.base.Preconditions;
 
 import com.android.contacts.common.interactions.TouchPointManager;
 import com.android.contacts.common.util.MaterialColorMapUtils.MaterialPalette;
+import com.android.incallui.ListenerRegistry.Event1;
+import com.android.incallui.ListenerRegistry.Event2;
+import com.android.incallui.ListenerRegistry.Event3;
 import com.android.incalluibind.ObjectFactory;
 
-import java.util.Collections;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Takes updates from the CallList and notifies the InCallActivity (UI)
@@ -66,37 +70,111 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
 
     private static InCallPresenter sInCallPresenter;
 
-    /**
-     * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
-     * load factor before resizing, 1 means we only expect a single thread to
-     * access the map so make only a single shard
-     */
-    private final Set<InCallStateListener> mListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<InCallStateListener, Boolean>(8, 0.9f, 1));
-    private final List<IncomingCallListener> mIncomingCallListeners = new CopyOnWriteArrayList<>();
-    private final Set<InCallDetailsListener> mDetailsListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<InCallDetailsListener, Boolean>(8, 0.9f, 1));
-    private final Set<CanAddCallListener> mCanAddCallListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<CanAddCallListener, Boolean>(8, 0.9f, 1));
-    private final Set<InCallUiListener> mInCallUiListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<InCallUiListener, Boolean>(8, 0.9f, 1));
-    private final Set<InCallOrientationListener> mOrientationListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<InCallOrientationListener, Boolean>(8, 0.9f, 1));
-    private final Set<InCallEventListener> mInCallEventListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<InCallEventListener, Boolean>(8, 0.9f, 1));
+    private static final Event3<IncomingCallListener, InCallState, InCallState, Call>
+            ON_INCOMING_CALL =
+            new Event3<IncomingCallListener, InCallState, InCallState, Call>() {
+        @Override
+        public void dispatch(IncomingCallListener listener, InCallState oldState,
+                InCallState newState, Call call) {
+            listener.onIncomingCall(oldState, newState, call);
+        }
+    };
+
+    private static final Event2<InCallDetailsListener, Call, android.telecom.Call.Details>
+            ON_DETAILS_CHANGED =
+            new Event2<InCallDetailsListener, Call, android.telecom.Call.Details>() {
+        @Override
+        public void dispatch(InCallDetailsListener listener, Call call,
+                android.telecom.Call.Details details) {
+            listener.onDetailsChanged(call, details);
+        }
+    };
+
+    private static final Event1<CanAddCallListener, Boolean> ON_CAN_ADD_CALL_CHANGED =
+            new Event1<CanAddCallListener, Boolean>() {
+        @Override
+        public void dispatch(CanAddCallListener listener, Boolean canAddCall) {
+            listener.onCanAddCallChanged(canAddCall);
+        }
+    };
+
+    private static final Event1<InCallUiListener, Boolean> ON_UI_SHOWING =
+            new Event1<InCallUiListener, Boolean>() {
+        @Override
+        public void dispatch(InCallUiListener listener, Boolean showing) {
+            listener.onUiShowing(showing);
+        }
+    };
+
+    private static final Event1<InCallOrientationListener, Integer> ON_DEVICE_ORIENTATION_CHANGED =
+            new Event1<InCallOrientationListener, Integer>() {
+        @Override
+        public void dispatch(InCallOrientationListener listener, Integer orientation) {
+            listener.onDeviceOrientationChanged(orientation);
+        }
+    };
+
+    private static final Event1<InCallEventListener, Boolean> ON_FULL_SCREEN_VIDEO_STATE_CHANGED =
+            new Event1<InCallEventListener, Boolean>() {
+        @Override
+        public void dispatch(InCallEventListener listener, Boolean isFullScreenVideo) {
+            listener.onFullScreenVideoStateChanged(isFullScreenVideo);
+        }
+    };
+
+    private final ListenerRegistry<InCallStateListener> mListeners =
+            new ListenerRegistry<InCallStateListener>("stateListeners", true);
+    // Not static, so that the log line keeps the InCallPresenter prefix.
+    private final Event3<InCallStateListener, InCallState, InCallState, CallList> mOnStateChange =
+            new Event3<InCallStateListener, InCallState, InCallState, CallList>() {
+        @Override
+        public void dispatch(InCallStateListener listener, InCallState oldState,
+                InCallState newState, CallList callList) {
+            Log.d(InCallPresenter.this, "Notify ", listener, " of state ", newState);
+            listener.onStateChange(oldState, newState, callList);
+        }
+    };
+    private final ListenerRegistry<IncomingCallListener> mIncomingCallListeners =
+            new ListenerRegistry<IncomingCallListener>("incomingCallListeners", true);
+    private final ListenerRegistry<InCallDetailsListener> mDetailsListeners =
+            new ListenerRegistry<InCallDetailsListener>("detailsListeners", true);
+    private final ListenerRegistry<CanAddCallListener> mCanAddCallListeners =
+            new ListenerRegistry<CanAddCallListener>("canAddCallListeners", true);
+    private final ListenerRegistry<InCallUiListener> mInCallUiListeners =
+            new ListenerRegistry<InCallUiListener>("inCallUiListeners", true);
+    private final ListenerRegistry<InCallOrientationListener> mOrientationListeners =
+            new ListenerRegistry<InCallOrientationListener>("orientationListeners", true);
+    private final ListenerRegistry<InCallEventListener> mInCallEventListeners =
+            new ListenerRegistry<InCallEventListener>("inCallEventListeners", true);
 
     private AudioModeProvider mAudioModeProvider;
     private StatusBarNotifier mStatusBarNotifier;
+    private InCallIntents mInCallIntents;
     private ContactInfoCache mContactInfoCache;
     private Context mContext;
     private CallList mCallList;
     private InCallActivity mInCallActivity;
     private InCallState mInCallState = InCallState.NO_CALLS;
     private ProximitySensor mProximitySensor;
+    /** Set once the deferred stage of {@link #setUp} has run. */
+    private boolean mDeferredSetUpDone = false;
     private boolean mServiceConnected = false;
     private boolean mAccountSelectionCancelled = false;
     private InCallCameraManager mInCallCameraManager = null;
 
+    /**
+     * Runs the deferred stage of {@link #setUp} once the main thread is idle, unless something
+     * needs it sooner.
+     */
+    private final MessageQueue.IdleHandler mDeferredSetUpIdleHandler =
+            new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            ensureDeferredSetUp("idle");
+            return false;
+        }
+    };
+
     private final Phone.Listener mPhoneListener = new Phone.Listener() {
         @Override
         public void onBringToForeground(Phone phone, boolean showDialpad) {
@@ -113,9 +191,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         }
         @Override
         public void onCanAddCallChanged(Phone phone, boolean canAddCall) {
-            for (CanAddCallListener listener : mCanAddCallListeners) {
-                listener.onCanAddCallChanged(canAddCall);
-            }
+            mCanAddCallListeners.dispatch(ON_CAN_ADD_CALL_CHANGED, canAddCall);
         }
     };
 
@@ -131,20 +207,16 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         @Override
         public void onDetailsChanged(android.telecom.Call call,
                 android.telecom.Call.Details details) {
-            for (InCallDetailsListener listener : mDetailsListeners) {
-                listener.onDetailsChanged(CallList.getInstance().getCallByTelecommCall(call),
-                        details);
-            }
+            mDetailsListeners.dispatch(ON_DETAILS_CHANGED,
+                    CallList.getInstance().getCallByTelecommCall(call), details);
         }
 
         @Override
         public void onConferenceableCallsChanged(
                 android.telecom.Call call, List<android.telecom.Call> conferenceableCalls) {
             Log.i(this, "onConferenceableCallsChanged: " + call);
-            for (InCallDetailsListener listener : mDetailsListeners) {
-                listener.onDetailsChanged(CallList.getInstance().getCallByTelecommCall(call),
-                        call.getDetails());
-            }
+            mDetailsListeners.dispatch(ON_DETAILS_CHANGED,
+                    CallList.getInstance().getCallByTelecommCall(call), call.getDetails());
         }
     };
 
@@ -222,30 +294,77 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         }
 
         Preconditions.checkNotNull(context);
+        Trace.beginSection("InCallPresenter.setUp");
+        final long start = SystemClock.uptimeMillis();
         mContext = context;
 
+        // Set up only what is needed to show an incoming call and its notification here. The
+        // rest is set up by ensureDeferredSetUp(), once the main thread is idle or when it is
+        // first needed.
         mContactInfoCache = ContactInfoCache.getInstance(context);
 
-        mStatusBarNotifier = new StatusBarNotifier(context, mContactInfoCache);
+        mInCallIntents = new InCallIntents(context);
+
+        mStatusBarNotifier = new StatusBarNotifier(context, mContactInfoCache, mInCallIntents);
         addListener(mStatusBarNotifier);
 
         mAudioModeProvider = audioModeProvider;
 
-        mProximitySensor = new ProximitySensor(context, mAudioModeProvider);
-        addListener(mProximitySensor);
-
         mCallList = callList;
 
         // This only gets called by the service so this is okay.
         mServiceConnected = true;
 
+        Looper.myQueue().addIdleHandler(mDeferredSetUpIdleHandler);
+
         // The final thing we do in this set up is add ourselves as a listener to CallList.  This
         // will kick off an update and the whole process can start.
         mCallList.addListener(this);
 
+        FrameStatsRecorder.getInstance().onCriticalSetUpComplete(
+                SystemClock.uptimeMillis() - start);
+        Trace.endSection();
         Log.d(this, "Finished InCallPresenter.setUp");
     }
 
+    /**
+     * Runs the deferred stage of {@link #setUp}, if it has not run yet: sets up the proximity
+     * sensor and the call clock, which are only needed once a call is in progress or the UI is
+     * showing. They are brought up to date with the current state.
+     *
+     * @param trigger What needs the deferred stage, for the dump output.
+     */
+    private void ensureDeferredSetUp(String trigger) {
+        if (mDeferredSetUpDone || mContext == null) {
+            return;
+        }
+        mDeferredSetUpDone = true;
+        Looper.myQueue().removeIdleHandler(mDeferredSetUpIdleHandler);
+
+        Trace.beginSection("InCallPresenter.setUp.deferred");
+        final long start = SystemClock.uptimeMillis();
+
+        mProximitySensor = new ProximitySensor(mContext, mAudioModeProvider);
+        addListener(mProximitySensor);
+
+        CallClock.getInstance().setUp(mContext);
+        addInCallUiListener(CallClock.getInstance());
+
+        // Catch up with whatever happened before this stage ran.
+        if (mCallList != null) {
+            mProximitySensor.onStateChange(mInCallState, mInCallState, mCallList);
+        }
+        if (isShowingInCallUi()) {
+            mProximitySensor.onInCallShowing(true);
+            CallClock.getInstance().onUiShowing(true);
+        }
+
+        FrameStatsRecorder.getInstance().onDeferredSetUpComplete(
+                SystemClock.uptimeMillis() - start, trigger);
+        Trace.endSection();
+        Log.d(this, "Finished deferred set up, triggered by " + trigger);
+    }
+
     /**
      * Called when the telephony service has disconnected from us.  This will happen when there are
      * no more active calls. However, we may still want to continue showing the UI for
@@ -402,15 +521,24 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         InCallState oldState = mInCallState;
         newState = startOrFinishUi(newState);
 
+        if (newState == InCallState.OUTGOING || newState == InCallState.INCALL) {
+            // The proximity sensor must follow the call from the moment it goes off hook.
+            ensureDeferredSetUp("offhook");
+            FrameStatsRecorder.getInstance().cancelRingReady();
+        } else if (newState == InCallState.INCOMING) {
+            FrameStatsRecorder.getInstance().onRingReady();
+        }
+        if (newState != InCallState.INCOMING) {
+            // Also reached from onDisconnect, for a call which is disconnected while ringing.
+            FrameStatsRecorder.getInstance().onIncomingCallEnded();
+        }
+
         // Set the new state before announcing it to the world
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
         mInCallState = newState;
 
         // notify listeners of new state
-        for (InCallStateListener listener : mListeners) {
-            Log.d(this, "Notify " + listener + " of state " + mInCallState.toString());
-            listener.onStateChange(oldState, mInCallState, callList);
-        }
+        mListeners.dispatch(mOnStateChange, oldState, mInCallState, callList);
 
         if (isActivityStarted()) {
             final boolean hasCall = callList.getActiveOrBackgroundCall() != null ||
@@ -426,15 +554,19 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      */
     @Override
     public void onIncomingCall(Call call) {
+        FrameStatsRecorder.getInstance().onIncomingCall();
+        if (mContext != null && call.isVideoCall(mContext)) {
+            // Look the cameras up while the UI starts, in case the call is answered with video.
+            InCallCameraManager.warmUp(mContext);
+        }
         InCallState newState = startOrFinishUi(InCallState.INCOMING);
         InCallState oldState = mInCallState;
+        FrameStatsRecorder.getInstance().onRingReady();
 
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
         mInCallState = newState;
 
-        for (IncomingCallListener listener : mIncomingCallListeners) {
-            listener.onIncomingCall(oldState, mInCallState, call);
-        }
+        mIncomingCallListeners.dispatch(ON_INCOMING_CALL, oldState, mInCallState, call);
     }
 
     /**
@@ -443,6 +575,9 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      */
     @Override
     public void onDisconnect(Call call) {
+        if (mContactInfoCache != null) {
+            mContactInfoCache.cancelLookup(call);
+        }
         hideDialpadForDisconnect();
         maybeShowErrorDialogOnDisconnect(call);
 
@@ -549,6 +684,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
     }
 
     public ProximitySensor getProximitySensor() {
+        ensureDeferredSetUp("proximity");
         return mProximitySensor;
     }
 
@@ -642,6 +778,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         if (call != null) {
             VideoProfile videoProfile =
                     new VideoProfile(VideoProfile.VideoState.BIDIRECTIONAL);
+            FrameStatsRecorder.getInstance().onVideoAnswered();
             call.getVideoCall().sendSessionModifyResponse(videoProfile);
             call.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
         }
@@ -689,6 +826,10 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * Called when the activity goes in/out of the foreground.
      */
     public void onUiShowing(boolean showing) {
+        if (showing) {
+            ensureDeferredSetUp("ui");
+        }
+
         // We need to update the notification bar when we leave the UI because that
         // could trigger it to show again.
         if (mStatusBarNotifier != null) {
@@ -718,9 +859,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
             CircularRevealActivity.sendClearDisplayBroadcast(mContext);
         }
 
-        for (InCallUiListener listener : mInCallUiListeners) {
-            listener.onUiShowing(showing);
-        }
+        mInCallUiListeners.dispatch(ON_UI_SHOWING, showing);
     }
 
     public void addInCallUiListener(InCallUiListener listener) {
@@ -844,9 +983,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * @param isFullScreenVideo {@code True} if entering full screen video mode.
      */
     public void setFullScreenVideoState(boolean isFullScreenVideo) {
-        for (InCallEventListener listener : mInCallEventListeners) {
-            listener.onFullScreenVideoStateChanged(isFullScreenVideo);
-        }
+        mInCallEventListeners.dispatch(ON_FULL_SCREEN_VIDEO_STATE_CHANGED, isFullScreenVideo);
     }
 
     /**
@@ -1059,7 +1196,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         // until our new activity is up.
 
         if (isCallWaiting) {
-            if (mProximitySensor.isScreenReallyOff() && isActivityStarted()) {
+            if (getProximitySensor().isScreenReallyOff() && isActivityStarted()) {
                 Log.i(this, "Restarting InCallActivity to turn screen on for call waiting");
                 mInCallActivity.finish();
                 // When the activity actually finishes, we will start it again if there are
@@ -1077,6 +1214,21 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         return true;
     }
 
+    public void dump(PrintWriter pw) {
+        pw.println("InCallPresenter:");
+        pw.println("  inCallState: " + mInCallState);
+        mListeners.dump(pw);
+        mIncomingCallListeners.dump(pw);
+        mDetailsListeners.dump(pw);
+        mCanAddCallListeners.dump(pw);
+        mInCallUiListeners.dump(pw);
+        mOrientationListeners.dump(pw);
+        mInCallEventListeners.dump(pw);
+        if (mStatusBarNotifier != null) {
+            mStatusBarNotifier.dump(pw);
+        }
+    }
+
     /**
      * Checks to see if both the UI is gone and the service is disconnected. If so, tear it all
      * down.
@@ -1102,6 +1254,12 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
             }
             mProximitySensor = null;
 
+            removeInCallUiListener(CallClock.getInstance());
+            CallClock.getInstance().tearDown();
+
+            Looper.myQueue().removeIdleHandler(mDeferredSetUpIdleHandler);
+            mDeferredSetUpDone = false;
+
             mAudioModeProvider = null;
 
             if (mStatusBarNotifier != null) {
@@ -1115,6 +1273,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
             mCallList = null;
 
             mContext = null;
+            mInCallIntents = null;
             mInCallActivity = null;
 
             mListeners.clear();
@@ -1213,22 +1372,16 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         return getInCallIntent(showDialpad, newOutgoingCall, showCircularReveal, true);
     }
 
+    /**
+     * Returns a shared intent for starting the InCallActivity, which must not be modified.
+     */
     public Intent getInCallIntent(boolean showDialpad, boolean newOutgoingCall,
             boolean showCircularReveal, boolean newTask) {
-        final Intent intent = new Intent(Intent.ACTION_MAIN, null);
-        intent.setFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS
-                | Intent.FLAG_ACTIVITY_NO_USER_ACTION);
-        if (newTask) {
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        if (mInCallIntents == null) {
+            mInCallIntents = new InCallIntents(mContext);
         }
-
-        intent.setClass(mContext, InCallActivity.class);
-        if (showDialpad) {
-            intent.putExtra(InCallActivity.SHOW_DIALPAD_EXTRA, true);
-        }
-        intent.putExtra(InCallActivity.NEW_OUTGOING_CALL_EXTRA, newOutgoingCall);
-        intent.putExtra(InCallActivity.SHOW_CIRCULAR_REVEAL_EXTRA, showCircularReveal);
-        return intent;
+        return mInCallIntents.getInCallIntent(showDialpad, newOutgoingCall, showCircularReveal,
+                newTask);
     }
 
     /**
@@ -1280,9 +1433,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * @param orientation The orientation of the device.
      */
     public void onDeviceOrientationChange(int orientation) {
-        for (InCallOrientationListener listener : mOrientationListeners) {
-            listener.onDeviceOrientationChanged(orientation);
-        }
+        mOrientationListeners.dispatch(ON_DEVICE_ORIENTATION_CHANGED, orientation);
     }
 
     /**
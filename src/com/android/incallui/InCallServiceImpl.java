@@ -21,6 +21,9 @@ import android.os.IBinder;
 import android.telecom.InCallService;
 import android.telecom.Phone;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * Used to receive updates about calls from the Telecomm component.  This service is bound to
  * Telecomm while there exist calls which potentially require UI. This includes ringing (incoming),
@@ -37,6 +40,7 @@ public class InCallServiceImpl extends InCallService {
         TelecomAdapter.getInstance().setPhone(phone);
         InCallPresenter.getInstance().setPhone(phone);
         TelecomAdapter.getInstance().setContext(InCallServiceImpl.this);
+        CallerInfo.warmUpGeoDescriptions(InCallServiceImpl.this);
     }
 
     @Override
@@ -53,6 +57,7 @@ public class InCallServiceImpl extends InCallService {
 
     @Override
     public IBinder onBind(Intent intent) {
+        FrameStatsRecorder.getInstance().onServiceBind();
         InCallPresenter.getInstance().setUp(
                 getApplicationContext(),
                 CallList.getInstance(),
@@ -67,4 +72,16 @@ public class InCallServiceImpl extends InCallService {
         InCallPresenter.getInstance().onServiceUnbind();
         return super.onUnbind(intent);
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        InCallPresenter.getInstance().dump(pw);
+        CallList.getInstance().dump(pw);
+        AudioModeProvider.getInstance().dump(pw);
+        InCallVideoCallListenerNotifier.getInstance().dump(pw);
+        ContactInfoCache.getInstance(this).dump(pw);
+        CallerInfoAsyncQuery.dump(pw);
+        FrameStatsRecorder.getInstance().dump(pw);
+        VideoStatsRecorder.getInstance().dump(pw);
+    }
 }
@@ -18,13 +18,22 @@ package com.android.incallui;
 
 import com.google.common.base.Preconditions;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import com.android.incallui.ListenerRegistry.Event1;
+import com.android.incallui.ListenerRegistry.Event2;
+import com.android.incallui.ListenerRegistry.Event3;
+
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
 
 /**
  * Class used by {@link InCallService.VideoCallListener} to notify interested parties of incoming
  * events.
+ *
+ * Peer and camera dimension changes are coalesced per call: only the latest dimensions are
+ * delivered, at most once per frame, since each one makes listeners resize and lay out the video
+ * surfaces. Must be used on the main thread.
  */
 public class InCallVideoCallListenerNotifier {
     /**
@@ -32,18 +41,105 @@ public class InCallVideoCallListenerNotifier {
      */
     private static InCallVideoCallListenerNotifier sInstance = new InCallVideoCallListenerNotifier();
 
+    private static final Event1<SessionModificationListener, Call> ON_UPGRADE_TO_VIDEO_REQUEST =
+            new Event1<SessionModificationListener, Call>() {
+        @Override
+        public void dispatch(SessionModificationListener listener, Call call) {
+            listener.onUpgradeToVideoRequest(call);
+        }
+    };
+
+    private static final Event1<SessionModificationListener, Call> ON_UPGRADE_TO_VIDEO_SUCCESS =
+            new Event1<SessionModificationListener, Call>() {
+        @Override
+        public void dispatch(SessionModificationListener listener, Call call) {
+            listener.onUpgradeToVideoSuccess(call);
+        }
+    };
+
+    private static final Event1<SessionModificationListener, Call> ON_UPGRADE_TO_VIDEO_FAIL =
+            new Event1<SessionModificationListener, Call>() {
+        @Override
+        public void dispatch(SessionModificationListener listener, Call call) {
+            listener.onUpgradeToVideoFail(call);
+        }
+    };
+
+    private static final Event1<SessionModificationListener, Call> ON_DOWNGRADE_TO_AUDIO =
+            new Event1<SessionModificationListener, Call>() {
+        @Override
+        public void dispatch(SessionModificationListener listener, Call call) {
+            listener.onDowngradeToAudio(call);
+        }
+    };
+
+    private static final Event2<VideoEventListener, Call, Boolean> ON_PEER_PAUSE_STATE_CHANGED =
+            new Event2<VideoEventListener, Call, Boolean>() {
+        @Override
+        public void dispatch(VideoEventListener listener, Call call, Boolean paused) {
+            listener.onPeerPauseStateChanged(call, paused);
+        }
+    };
+
+    private static final Event3<SurfaceChangeListener, Call, Integer, Integer>
+            ON_UPDATE_PEER_DIMENSIONS =
+            new Event3<SurfaceChangeListener, Call, Integer, Integer>() {
+        @Override
+        public void dispatch(SurfaceChangeListener listener, Call call, Integer width,
+                Integer height) {
+            listener.onUpdatePeerDimensions(call, width, height);
+        }
+    };
+
+    private static final Event3<SurfaceChangeListener, Call, Integer, Integer>
+            ON_CAMERA_DIMENSIONS_CHANGE =
+            new Event3<SurfaceChangeListener, Call, Integer, Integer>() {
+        @Override
+        public void dispatch(SurfaceChangeListener listener, Call call, Integer width,
+                Integer height) {
+            listener.onCameraDimensionsChange(call, width, height);
+        }
+    };
+
+    private final ListenerRegistry<SessionModificationListener> mSessionModificationListeners =
+            new ListenerRegistry<SessionModificationListener>(
+                    "sessionModificationListeners", true);
+    private final ListenerRegistry<VideoEventListener> mVideoEventListeners =
+            new ListenerRegistry<VideoEventListener>("videoEventListeners", true);
+    private final ListenerRegistry<SurfaceChangeListener> mSurfaceChangeListeners =
+            new ListenerRegistry<SurfaceChangeListener>("surfaceChangeListeners", true);
+
     /**
-     * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
-     * load factor before resizing, 1 means we only expect a single thread to
-     * access the map so make only a single shard
+     * The latest dimensions of a call waiting to be delivered on the next frame.
      */
-    private final Set<SessionModificationListener> mSessionModificationListeners =
-            Collections.newSetFromMap(new ConcurrentHashMap<SessionModificationListener, Boolean>
-                    (8, 0.9f, 1));
-    private final Set<VideoEventListener> mVideoEventListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<VideoEventListener, Boolean>(8, 0.9f, 1));
-    private final Set<SurfaceChangeListener> mSurfaceChangeListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<SurfaceChangeListener, Boolean>(8, 0.9f, 1));
+    private static class PendingDimensions {
+        Call call;
+        boolean peerPending;
+        int peerWidth;
+        int peerHeight;
+        boolean cameraPending;
+        int cameraWidth;
+        int cameraHeight;
+    }
+
+    // Calls with pending dimensions; entries are reused once delivered.
+    private final ArrayList<PendingDimensions> mPendingDimensions =
+            new ArrayList<PendingDimensions>();
+    private int mPendingCount;
+    private boolean mFrameScheduled;
+
+    private int mReceivedDimensionCount;
+    private int mDroppedDimensionCount;
+    private int mDispatchedDimensionCount;
+
+    private final Choreographer.FrameCallback mDispatchCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            dispatchPendingDimensions();
+        }
+    };
 
     /**
      * Static singleton accessor method.
@@ -127,9 +223,7 @@ public class InCallVideoCallListenerNotifier {
      * @param call The call.
      */
     public void upgradeToVideoRequest(Call call) {
-        for (SessionModificationListener listener : mSessionModificationListeners) {
-            listener.onUpgradeToVideoRequest(call);
-        }
+        mSessionModificationListeners.dispatch(ON_UPGRADE_TO_VIDEO_REQUEST, call);
     }
 
     /**
@@ -138,9 +232,7 @@ public class InCallVideoCallListenerNotifier {
      * @param call The call.
      */
     public void upgradeToVideoSuccess(Call call) {
-        for (SessionModificationListener listener : mSessionModificationListeners) {
-            listener.onUpgradeToVideoSuccess(call);
-        }
+        mSessionModificationListeners.dispatch(ON_UPGRADE_TO_VIDEO_SUCCESS, call);
     }
 
     /**
@@ -149,9 +241,7 @@ public class InCallVideoCallListenerNotifier {
      * @param call The call.
      */
     public void upgradeToVideoFail(Call call) {
-        for (SessionModificationListener listener : mSessionModificationListeners) {
-            listener.onUpgradeToVideoFail(call);
-        }
+        mSessionModificationListeners.dispatch(ON_UPGRADE_TO_VIDEO_FAIL, call);
     }
 
     /**
@@ -160,9 +250,7 @@ public class InCallVideoCallListenerNotifier {
      * @param call The call.
      */
     public void downgradeToAudio(Call call) {
-        for (SessionModificationListener listener : mSessionModificationListeners) {
-            listener.onDowngradeToAudio(call);
-        }
+        mSessionModificationListeners.dispatch(ON_DOWNGRADE_TO_AUDIO, call);
     }
 
     /**
@@ -172,35 +260,109 @@ public class InCallVideoCallListenerNotifier {
      * @param paused The paused state.
      */
     public void peerPausedStateChanged(Call call, boolean paused) {
-        for (VideoEventListener listener : mVideoEventListeners) {
-            listener.onPeerPauseStateChanged(call, paused);
-        }
+        mVideoEventListeners.dispatch(ON_PEER_PAUSE_STATE_CHANGED, call, paused);
     }
 
     /**
-     * Inform listeners of a change to peer dimensions.
+     * Inform listeners of a change to peer dimensions, on the next frame.
      *
      * @param call The call.
      * @param width New peer width.
      * @param height New peer height.
      */
     public void peerDimensionsChanged(Call call, int width, int height) {
-        for (SurfaceChangeListener listener : mSurfaceChangeListeners) {
-            listener.onUpdatePeerDimensions(call, width, height);
+        final PendingDimensions pending = getPendingDimensions(call);
+        if (pending.peerPending) {
+            mDroppedDimensionCount++;
         }
+        pending.peerPending = true;
+        pending.peerWidth = width;
+        pending.peerHeight = height;
     }
 
     /**
-     * Inform listeners of a change to camera dimensions.
+     * Inform listeners of a change to camera dimensions, on the next frame.
      *
      * @param call The call.
      * @param width The new camera video width.
      * @param height The new camera video height.
      */
     public void cameraDimensionsChanged(Call call, int width, int height) {
-        for (SurfaceChangeListener listener : mSurfaceChangeListeners) {
-            listener.onCameraDimensionsChange(call, width, height);
+        final PendingDimensions pending = getPendingDimensions(call);
+        if (pending.cameraPending) {
+            mDroppedDimensionCount++;
         }
+        pending.cameraPending = true;
+        pending.cameraWidth = width;
+        pending.cameraHeight = height;
+    }
+
+    /**
+     * Returns the pending dimensions of a call, adding them if there are none, and makes sure
+     * they get delivered.
+     */
+    private PendingDimensions getPendingDimensions(Call call) {
+        mReceivedDimensionCount++;
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mDispatchCallback);
+        }
+        for (int i = 0; i < mPendingCount; i++) {
+            final PendingDimensions pending = mPendingDimensions.get(i);
+            if (pending.call == call) {
+                return pending;
+            }
+        }
+        if (mPendingCount == mPendingDimensions.size()) {
+            mPendingDimensions.add(new PendingDimensions());
+        }
+        final PendingDimensions pending = mPendingDimensions.get(mPendingCount++);
+        pending.call = call;
+        return pending;
+    }
+
+    private void dispatchPendingDimensions() {
+        // Listeners may report new dimensions while being notified. Those for a call which has
+        // already been handled wait for the next frame.
+        final int count = mPendingCount;
+        for (int i = 0; i < count; i++) {
+            final PendingDimensions pending = mPendingDimensions.get(i);
+            final Call call = pending.call;
+            if (pending.peerPending) {
+                pending.peerPending = false;
+                mDispatchedDimensionCount++;
+                mSurfaceChangeListeners.dispatch(ON_UPDATE_PEER_DIMENSIONS, call,
+                        pending.peerWidth, pending.peerHeight);
+            }
+            if (pending.cameraPending) {
+                pending.cameraPending = false;
+                mDispatchedDimensionCount++;
+                mSurfaceChangeListeners.dispatch(ON_CAMERA_DIMENSIONS_CHANGE, call,
+                        pending.cameraWidth, pending.cameraHeight);
+            }
+        }
+        // Drop the delivered entries, keeping any added during delivery.
+        int kept = 0;
+        for (int i = 0; i < mPendingCount; i++) {
+            final PendingDimensions pending = mPendingDimensions.get(i);
+            if (pending.peerPending || pending.cameraPending) {
+                mPendingDimensions.set(i, mPendingDimensions.get(kept));
+                mPendingDimensions.set(kept++, pending);
+            } else {
+                pending.call = null;
+            }
+        }
+        mPendingCount = kept;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("InCallVideoCallListenerNotifier:");
+        pw.println("  receivedDimensionEvents: " + mReceivedDimensionCount);
+        pw.println("  droppedDimensionEvents: " + mDroppedDimensionCount);
+        pw.println("  dispatchedDimensionEvents: " + mDispatchedDimensionCount);
+        mSessionModificationListeners.dump(pw);
+        mVideoEventListeners.dump(pw);
+        mSurfaceChangeListeners.dump(pw);
     }
 
     /**
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import com.google.common.base.Preconditions;
+
+import java.io.PrintWriter;
+
+/**
+ * A set of listeners which can be iterated without allocating.
+ *
+ * Adding or removing a listener copies the backing array, and {@link #dispatch} iterates the
+ * current array. A dispatch therefore sees a stable snapshot even if listeners add or remove
+ * themselves while being notified. Each callback is an {@link Event1}, {@link Event2} or
+ * {@link Event3} kept in a static field, so notifying the listeners doesn't allocate beyond
+ * boxing primitive arguments:
+ *
+ * <pre>
+ * private static final ListenerRegistry.Event1&lt;Listener, Call&gt; ON_SOMETHING =
+ *         new ListenerRegistry.Event1&lt;Listener, Call&gt;() {
+ *             public void dispatch(Listener listener, Call call) {
+ *                 listener.onSomething(call);
+ *             }
+ *         };
+ *
+ * mListeners.dispatch(ON_SOMETHING, call);
+ * </pre>
+ *
+ * When timing is enabled, each listener's callbacks are timed and the totals are printed by
+ * {@link #dump}, so slow listeners show up in the InCallServiceImpl dump output.
+ */
+public class ListenerRegistry<T> {
+
+    // Callbacks longer than a frame are counted as slow.
+    private static final long SLOW_DISPATCH_NANOS = 16 * 1000000;
+    private static final long NANOS_PER_MICRO = 1000;
+
+    /**
+     * A callback with one argument.
+     */
+    public interface Event1<T, A> {
+        void dispatch(T listener, A arg);
+    }
+
+    /**
+     * A callback with two arguments.
+     */
+    public interface Event2<T, A, B> {
+        void dispatch(T listener, A arg1, B arg2);
+    }
+
+    /**
+     * A callback with three arguments.
+     */
+    public interface Event3<T, A, B, C> {
+        void dispatch(T listener, A arg1, B arg2, C arg3);
+    }
+
+    /**
+     * A registered listener and its dispatch statistics. The statistics are only updated from
+     * the dispatching thread and are for debugging, so they are not synchronized.
+     */
+    private static final class Entry<T> {
+        final T listener;
+        private final boolean mTimed;
+        private long mDispatchCount;
+        private long mSlowDispatchCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        private Entry(T listener, boolean timed) {
+            this.listener = listener;
+            mTimed = timed;
+        }
+
+        /**
+         * Returns the start time to pass to {@link #endDispatch}.
+         */
+        long beginDispatch() {
+            return mTimed ? System.nanoTime() : 0;
+        }
+
+        void endDispatch(long startNanos) {
+            if (!mTimed) {
+                return;
+            }
+            final long duration = System.nanoTime() - startNanos;
+            mDispatchCount++;
+            mTotalNanos += duration;
+            if (duration > mMaxNanos) {
+                mMaxNanos = duration;
+            }
+            if (duration > SLOW_DISPATCH_NANOS) {
+                mSlowDispatchCount++;
+            }
+        }
+    }
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final String mName;
+    private final boolean mTimed;
+    @SuppressWarnings("unchecked")
+    private volatile Entry<T>[] mEntries = EMPTY;
+
+    /**
+     * @param name The name used in the dump output.
+     * @param timed Whether to time each listener's callbacks.
+     */
+    public ListenerRegistry(String name, boolean timed) {
+        mName = name;
+        mTimed = timed;
+    }
+
+    /**
+     * Adds a listener. Returns false if it was already registered.
+     */
+    public synchronized boolean add(T listener) {
+        Preconditions.checkNotNull(listener);
+        final Entry<T>[] entries = mEntries;
+        if (indexOf(entries, listener) >= 0) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final Entry<T>[] newEntries = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, newEntries, 0, entries.length);
+        newEntries[entries.length] = new Entry<T>(listener, mTimed);
+        mEntries = newEntries;
+        return true;
+    }
+
+    /**
+     * Removes a listener. Returns false if it was not registered.
+     */
+    public synchronized boolean remove(T listener) {
+        final Entry<T>[] entries = mEntries;
+        final int index = indexOf(entries, listener);
+        if (index < 0) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final Entry<T>[] newEntries = new Entry[entries.length - 1];
+        System.arraycopy(entries, 0, newEntries, 0, index);
+        System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+        mEntries = newEntries;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void clear() {
+        mEntries = EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return mEntries.length == 0;
+    }
+
+    /**
+     * Calls the event on each listener, in the order they were added.
+     */
+    public <A> void dispatch(Event1<T, A> event, A arg) {
+        for (Entry<T> entry : mEntries) {
+            final long start = entry.beginDispatch();
+            event.dispatch(entry.listener, arg);
+            entry.endDispatch(start);
+        }
+    }
+
+    public <A, B> void dispatch(Event2<T, A, B> event, A arg1, B arg2) {
+        for (Entry<T> entry : mEntries) {
+            final long start = entry.beginDispatch();
+            event.dispatch(entry.listener, arg1, arg2);
+            entry.endDispatch(start);
+        }
+    }
+
+    public <A, B, C> void dispatch(Event3<T, A, B, C> event, A arg1, B arg2, C arg3) {
+        for (Entry<T> entry : mEntries) {
+            final long start = entry.beginDispatch();
+            event.dispatch(entry.listener, arg1, arg2, arg3);
+            entry.endDispatch(start);
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        final Entry<T>[] entries = mEntries;
+        pw.println("  " + mName + ": " + entries.length + " listeners");
+        if (!mTimed) {
+            return;
+        }
+        for (Entry<T> entry : entries) {
+            final long count = entry.mDispatchCount;
+            pw.println("    " + entry.listener.getClass().getName()
+                    + ": calls=" + count
+                    + " avgUs=" + (count == 0 ? 0 : entry.mTotalNanos / count / NANOS_PER_MICRO)
+                    + " maxUs=" + (entry.mMaxNanos / NANOS_PER_MICRO)
+                    + " slow=" + entry.mSlowDispatchCount);
+        }
+    }
+
+    private static <T> int indexOf(Entry<T>[] entries, T listener) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].listener.equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -17,11 +17,17 @@
 package com.android.incallui;
 
 import android.net.Uri;
+import android.os.Process;
 import android.telecom.PhoneAccount;
 import android.telephony.PhoneNumberUtils;
+import android.util.LruCache;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Manages logging for the entire class.
@@ -38,68 +44,220 @@ public class Log {
             android.util.Log.isLoggable(TAG, android.util.Log.VERBOSE);
     public static final String TAG_DELIMETER = " - ";
 
+    // Messages are handed to a background writer through a bounded ring, so that logging does
+    // not block the calling thread on the log device. Must be a power of two.
+    private static final int RING_SIZE = 256;
+    private static final int RING_MASK = RING_SIZE - 1;
+    private static final AtomicReferenceArray<String> sRingMessages =
+            new AtomicReferenceArray<String>(RING_SIZE);
+    private static final int[] sRingPriorities = new int[RING_SIZE];
+    private static final Throwable[] sRingThrowables = new Throwable[RING_SIZE];
+    // Sequence number of the next slot to be claimed by a writer, and of the next slot the
+    // background writer will print.
+    private static final AtomicLong sRingWriteSeq = new AtomicLong();
+    private static final AtomicLong sRingReadSeq = new AtomicLong();
+    private static volatile boolean sWriterParked;
+    // Messages dropped because the ring was full, reported with the next message queued.
+    private static final AtomicInteger sDroppedCount = new AtomicInteger();
+    private static final Thread sWriterThread = new Thread("InCallLogWriter") {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            drainRing();
+        }
+    };
+
+    static {
+        sWriterThread.setDaemon(true);
+        sWriterThread.start();
+    }
+
+    private static final int MAX_PII_HASHES = 64;
+    // Hashes of recently logged PII; the same numbers and URIs are logged over and over.
+    private static final LruCache<String, String> sPiiHashes =
+            new LruCache<String, String>(MAX_PII_HASHES);
+    private static final ThreadLocal<MessageDigest> sDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
     public static void d(String tag, String msg) {
         if (DEBUG) {
-            android.util.Log.d(TAG, delimit(tag) + msg);
+            println(android.util.Log.DEBUG, delimit(tag) + msg, null);
+        }
+    }
+
+    /**
+     * Logs {@code str1 + str2} at debug level. {@code str2} is only converted to a string if
+     * debug logging is enabled.
+     */
+    public static void d(String tag, String str1, Object str2) {
+        if (DEBUG) {
+            println(android.util.Log.DEBUG, delimit(tag) + str1 + str2, null);
         }
     }
 
     public static void d(Object obj, String msg) {
         if (DEBUG) {
-            android.util.Log.d(TAG, getPrefix(obj) + msg);
+            println(android.util.Log.DEBUG, getPrefix(obj) + msg, null);
         }
     }
 
     public static void d(Object obj, String str1, Object str2) {
         if (DEBUG) {
-            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+            println(android.util.Log.DEBUG, getPrefix(obj) + str1 + str2, null);
+        }
+    }
+
+    public static void d(Object obj, String str1, Object str2, String str3, Object str4) {
+        if (DEBUG) {
+            println(android.util.Log.DEBUG, getPrefix(obj) + str1 + str2 + str3 + str4, null);
         }
     }
 
     public static void v(Object obj, String msg) {
         if (VERBOSE) {
-            android.util.Log.v(TAG, getPrefix(obj) + msg);
+            println(android.util.Log.VERBOSE, getPrefix(obj) + msg, null);
         }
     }
 
     public static void v(Object obj, String str1, Object str2) {
         if (VERBOSE) {
-            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+            println(android.util.Log.DEBUG, getPrefix(obj) + str1 + str2, null);
         }
     }
 
     public static void e(String tag, String msg, Exception e) {
-        android.util.Log.e(TAG, delimit(tag) + msg, e);
+        println(android.util.Log.ERROR, delimit(tag) + msg, e);
     }
 
     public static void e(String tag, String msg) {
-        android.util.Log.e(TAG, delimit(tag) + msg);
+        println(android.util.Log.ERROR, delimit(tag) + msg, null);
     }
 
     public static void e(Object obj, String msg, Exception e) {
-        android.util.Log.e(TAG, getPrefix(obj) + msg, e);
+        println(android.util.Log.ERROR, getPrefix(obj) + msg, e);
     }
 
     public static void e(Object obj, String msg) {
-        android.util.Log.e(TAG, getPrefix(obj) + msg);
+        println(android.util.Log.ERROR, getPrefix(obj) + msg, null);
     }
 
     public static void i(String tag, String msg) {
-        android.util.Log.i(TAG, delimit(tag) + msg);
+        println(android.util.Log.INFO, delimit(tag) + msg, null);
     }
 
     public static void i(Object obj, String msg) {
-        android.util.Log.i(TAG, getPrefix(obj) + msg);
+        println(android.util.Log.INFO, getPrefix(obj) + msg, null);
+    }
+
+    public static void i(Object obj, String str1, Object str2) {
+        println(android.util.Log.INFO, getPrefix(obj) + str1 + str2, null);
     }
 
     public static void w(Object obj, String msg) {
-        android.util.Log.w(TAG, getPrefix(obj) + msg);
+        println(android.util.Log.WARN, getPrefix(obj) + msg, null);
     }
 
     public static void wtf(Object obj, String msg) {
+        // wtf() may take the process down, so print it right away along with anything queued.
+        flush();
         android.util.Log.wtf(TAG, getPrefix(obj) + msg);
     }
 
+    /**
+     * Prints the queued messages on the calling thread, e.g. before the process goes down.
+     */
+    public static void flush() {
+        drainRing();
+    }
+
+    /**
+     * Queues a message for the background writer. If the ring is full, warnings and errors are
+     * printed directly and other messages are dropped, rather than making the caller wait for the
+     * log device. The number of dropped messages is printed along with the next message.
+     */
+    private static void println(int priority, String msg, Throwable tr) {
+        final int dropped = sDroppedCount.get() == 0 ? 0 : sDroppedCount.getAndSet(0);
+        if (dropped > 0) {
+            msg = "(" + dropped + " log messages dropped)\n" + msg;
+        }
+        while (true) {
+            final long seq = sRingWriteSeq.get();
+            if (seq - sRingReadSeq.get() >= RING_SIZE) {
+                if (priority >= android.util.Log.WARN) {
+                    printDirect(priority, msg, tr);
+                } else {
+                    sDroppedCount.addAndGet(dropped + 1);
+                }
+                return;
+            }
+            if (sRingWriteSeq.compareAndSet(seq, seq + 1)) {
+                final int index = (int) (seq & RING_MASK);
+                sRingPriorities[index] = priority;
+                sRingThrowables[index] = tr;
+                // Publishing the message makes the priority and throwable visible to the writer.
+                sRingMessages.set(index, msg);
+                if (sWriterParked) {
+                    LockSupport.unpark(sWriterThread);
+                }
+                return;
+            }
+        }
+    }
+
+    private static void printDirect(int priority, String msg, Throwable tr) {
+        if (tr != null) {
+            msg = msg + '\n' + android.util.Log.getStackTraceString(tr);
+        }
+        android.util.Log.println(priority, TAG, msg);
+    }
+
+    /**
+     * Prints queued messages. Runs forever on the writer thread; on any other thread it returns
+     * once the messages queued so far have been printed.
+     */
+    private static void drainRing() {
+        final boolean isWriter = Thread.currentThread() == sWriterThread;
+        while (true) {
+            synchronized (sRingReadSeq) {
+                long seq;
+                while ((seq = sRingReadSeq.get()) < sRingWriteSeq.get()) {
+                    final int index = (int) (seq & RING_MASK);
+                    final String msg = sRingMessages.get(index);
+                    if (msg == null) {
+                        // Claimed but not published yet.
+                        break;
+                    }
+                    final int priority = sRingPriorities[index];
+                    final Throwable tr = sRingThrowables[index];
+                    sRingThrowables[index] = null;
+                    sRingMessages.set(index, null);
+                    sRingReadSeq.set(seq + 1);
+                    printDirect(priority, msg, tr);
+                }
+            }
+            if (!isWriter) {
+                return;
+            }
+
+            sWriterParked = true;
+            if (sRingReadSeq.get() == sRingWriteSeq.get()) {
+                LockSupport.park();
+            } else {
+                // A claimed slot is still being published; give its writer a moment.
+                LockSupport.parkNanos(100000);
+            }
+            sWriterParked = false;
+        }
+    }
+
     public static String piiHandle(Object pii) {
         if (pii == null || VERBOSE) {
             return String.valueOf(pii);
@@ -137,18 +295,22 @@ public class Log {
         if (pii == null || VERBOSE) {
             return String.valueOf(pii);
         }
-        return "[" + secureHash(String.valueOf(pii).getBytes()) + "]";
+        final String value = String.valueOf(pii);
+        String hash = sPiiHashes.get(value);
+        if (hash == null) {
+            hash = "[" + secureHash(value.getBytes()) + "]";
+            sPiiHashes.put(value, hash);
+        }
+        return hash;
     }
 
     private static String secureHash(byte[] input) {
-        MessageDigest messageDigest;
-        try {
-            messageDigest = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
+        final MessageDigest messageDigest = sDigest.get();
+        if (messageDigest == null) {
             return null;
         }
-        messageDigest.update(input);
-        byte[] result = messageDigest.digest();
+        // digest() resets the instance for the next use.
+        byte[] result = messageDigest.digest(input);
         return encodeHex(result);
     }
 
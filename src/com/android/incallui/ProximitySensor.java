@@ -39,6 +39,12 @@ public class ProximitySensor implements AccelerometerListener.OrientationListene
         InCallStateListener, AudioModeListener {
     private static final String TAG = ProximitySensor.class.getSimpleName();
 
+    // Proximity sensor requests sent to Telecom.
+    private static final int SENSOR_REQUEST_NONE = 0;
+    private static final int SENSOR_REQUEST_ON = 1;
+    private static final int SENSOR_REQUEST_OFF = 2;
+    private static final int SENSOR_REQUEST_OFF_SCREEN_ON = 3;
+
     private final PowerManager mPowerManager;
     private final AudioModeProvider mAudioModeProvider;
     private final AccelerometerListener mAccelerometerListener;
@@ -47,6 +53,9 @@ public class ProximitySensor implements AccelerometerListener.OrientationListene
     private boolean mIsPhoneOffhook = false;
     private boolean mDialpadVisible;
 
+    // The proximity sensor request last sent to Telecom, so that it is only told about changes.
+    private int mSensorRequest = SENSOR_REQUEST_NONE;
+
     // True if the keyboard is currently *not* hidden
     // Gets updated whenever there is a Configuration change
     private boolean mIsHardKeyboardOpen;
@@ -64,6 +73,7 @@ public class ProximitySensor implements AccelerometerListener.OrientationListene
         mAccelerometerListener.enable(false);
 
         TelecomAdapter.getInstance().turnOffProximitySensor(true);
+        mSensorRequest = SENSOR_REQUEST_NONE;
     }
 
     /**
@@ -170,8 +180,11 @@ public class ProximitySensor implements AccelerometerListener.OrientationListene
      * 2) If a wired headset is connected
      * 3) if the speaker is ON
      * 4) If the slider is open(i.e. the hardkeyboard is *not* hidden)
+     *
+     * All of the inputs are delivered on the main thread, orientation changes included, so this
+     * is only called on the main thread.
      */
-    private synchronized void updateProximitySensorMode() {
+    private void updateProximitySensorMode() {
         final int audioMode = mAudioModeProvider.getAudioMode();
 
         // turn proximity sensor off and turn screen on immediately if
@@ -197,6 +210,20 @@ public class ProximitySensor implements AccelerometerListener.OrientationListene
 
             Log.v(this, "screenonImmediately: ", screenOnImmediately);
 
+            final int request;
+            if (mIsPhoneOffhook && !screenOnImmediately) {
+                request = SENSOR_REQUEST_ON;
+            } else {
+                request = screenOnImmediately
+                        ? SENSOR_REQUEST_OFF_SCREEN_ON : SENSOR_REQUEST_OFF;
+            }
+            if (request == mSensorRequest) {
+                // Nothing has changed since Telecom was last told; the inputs changed in a way
+                // that doesn't matter, or repeated themselves.
+                return;
+            }
+            mSensorRequest = request;
+
             Log.i(this, Objects.toStringHelper(this)
                     .add("keybrd", mIsHardKeyboardOpen ? 1 : 0)
                     .add("dpad", mDialpadVisible ? 1 : 0)
@@ -206,7 +233,7 @@ public class ProximitySensor implements AccelerometerListener.OrientationListene
                     .add("aud", AudioState.audioRouteToString(audioMode))
                     .toString());
 
-            if (mIsPhoneOffhook && !screenOnImmediately) {
+            if (request == SENSOR_REQUEST_ON) {
                 Log.d(this, "Turning on proximity sensor");
                 // Phone is in use!  Arrange for the screen to turn off
                 // automatically when the sensor detects a close object.
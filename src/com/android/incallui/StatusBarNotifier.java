@@ -24,24 +24,27 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telecom.Call.Details;
 import android.telecom.PhoneAccount;
 import android.text.BidiFormatter;
 import android.text.TextDirectionHeuristics;
 import android.text.TextUtils;
+import android.util.LruCache;
 
 import com.android.contacts.common.util.BitmapUtil;
 import com.android.incallui.ContactInfoCache.ContactCacheEntry;
 import com.android.incallui.ContactInfoCache.ContactInfoCacheCallback;
-import com.android.incallui.InCallApp.NotificationBroadcastReceiver;
 import com.android.incallui.InCallPresenter.InCallState;
 
+import java.io.PrintWriter;
+import java.util.Objects;
+
 /**
  * This class adds Notifications to the status bar for the in-call experience.
  */
@@ -51,6 +54,13 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
 
     private static final long IN_CALL_TIMEOUT = 1000L;
 
+    // Minimum time between two notifications for the same call in the same state. Changes that
+    // arrive sooner, like a contact name followed by its photo, are folded into one update.
+    private static final long MIN_UPDATE_INTERVAL_MS = 500L;
+
+    // Rounded large icons for the few photos a notification switches between during a session.
+    private static final int MAX_LARGE_ICONS = 4;
+
     private interface NotificationTimer {
         enum State {
             SCHEDULED,
@@ -92,21 +102,153 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         }
     };
 
+    /**
+     * Everything that determines what the posted notification looks like. Two equal models
+     * produce the same notification, so the second one does not need to be posted.
+     */
+    private static class NotificationModel {
+        final String callId;
+        final int state;
+        final int iconResId;
+        final int contentResId;
+        final String contentTitle;
+        // The bitmap or resource id the large icon is made from. Bitmaps compare by identity, so
+        // rounding the same photo again does not count as a change.
+        final Object largeIconSource;
+        final boolean isVideoUpgradeRequest;
+        final boolean isVideoCall;
+        final long connectTimeMillis;
+        final boolean isFullScreen;
+        final String person;
+        private final int mHashCode;
+
+        NotificationModel(String callId, int state, int iconResId, int contentResId,
+                String contentTitle, Object largeIconSource, boolean isVideoUpgradeRequest,
+                boolean isVideoCall, long connectTimeMillis, boolean isFullScreen,
+                String person) {
+            this.callId = callId;
+            this.state = state;
+            this.iconResId = iconResId;
+            this.contentResId = contentResId;
+            this.contentTitle = contentTitle;
+            this.largeIconSource = largeIconSource;
+            this.isVideoUpgradeRequest = isVideoUpgradeRequest;
+            this.isVideoCall = isVideoCall;
+            this.connectTimeMillis = connectTimeMillis;
+            this.isFullScreen = isFullScreen;
+            this.person = person;
+            mHashCode = Objects.hash(callId, state, iconResId, contentResId, contentTitle,
+                    largeIconSource, isVideoUpgradeRequest,
+                    isVideoCall, connectTimeMillis, isFullScreen, person);
+        }
+
+        /**
+         * Whether going from this model to {@code other} should be shown right away rather than
+         * being rate limited.
+         */
+        boolean isTransitionTo(NotificationModel other) {
+            return !callId.equals(other.callId) || state != other.state
+                    || isVideoUpgradeRequest != other.isVideoUpgradeRequest
+                    || isFullScreen != other.isFullScreen;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof NotificationModel)) {
+                return false;
+            }
+            final NotificationModel other = (NotificationModel) o;
+            return mHashCode == other.mHashCode
+                    && callId.equals(other.callId)
+                    && state == other.state
+                    && iconResId == other.iconResId
+                    && contentResId == other.contentResId
+                    && TextUtils.equals(contentTitle, other.contentTitle)
+                    && Objects.equals(largeIconSource, other.largeIconSource)
+                    && isVideoUpgradeRequest == other.isVideoUpgradeRequest
+                    && isVideoCall == other.isVideoCall
+                    && connectTimeMillis == other.connectTimeMillis
+                    && isFullScreen == other.isFullScreen
+                    && TextUtils.equals(person, other.person);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * Identifies a rounded large icon: the photo it was made from and the size it was made at.
+     */
+    private static class LargeIconKey {
+        final Bitmap source;
+        final int width;
+        final int height;
+
+        LargeIconKey(Bitmap source, int width, int height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LargeIconKey)) {
+                return false;
+            }
+            final LargeIconKey other = (LargeIconKey) o;
+            // Photos are compared by identity; ContactInfoCache hands out the same bitmap for
+            // as long as the photo is unchanged.
+            return source == other.source && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(source), width, height);
+        }
+    }
+
+    private final LruCache<LargeIconKey, Bitmap> mLargeIcons =
+            new LruCache<LargeIconKey, Bitmap>(MAX_LARGE_ICONS);
+    private Bitmap mConferenceLargeIcon;
+    private int mConferenceLargeIconWidth;
+    private int mConferenceLargeIconHeight;
+
+    private final Handler mDeferredUpdateHandler = new Handler(new Handler.Callback() {
+        public boolean handleMessage(Message m) {
+            postDeferredUpdate();
+            return true;
+        }
+    });
+
     private final Context mContext;
     private final ContactInfoCache mContactInfoCache;
+    private final InCallIntents mIntents;
     private final NotificationManager mNotificationManager;
     private boolean mIsShowingNotification = false;
-    private int mCallState = Call.State.INVALID;
-    private int mSavedIcon = 0;
-    private int mSavedContent = 0;
-    private Bitmap mSavedLargeIcon;
-    private String mSavedContentTitle;
+    private NotificationModel mSavedModel;
+    private long mLastNotifyTime;
+
+    // The latest update that arrived within MIN_UPDATE_INTERVAL_MS of the last one posted.
+    private String mDeferredCallId;
+    private ContactCacheEntry mDeferredContactInfo;
 
-    public StatusBarNotifier(Context context, ContactInfoCache contactInfoCache) {
+    private int mPostedCount;
+    private int mSkippedCount;
+    private int mDeferredCount;
+
+    public StatusBarNotifier(Context context, ContactInfoCache contactInfoCache,
+            InCallIntents intents) {
         Preconditions.checkNotNull(context);
+        Preconditions.checkNotNull(intents);
 
         mContext = context;
         mContactInfoCache = contactInfoCache;
+        mIntents = intents;
         mNotificationManager =
                 (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
     }
@@ -151,6 +293,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
      * @see #updateInCallNotification(InCallState,CallList)
      */
     private void cancelInCall() {
+        clearDeferredUpdate();
         if (mIsShowingNotification) {
             Log.d(this, "cancelInCall()...");
             mNotificationManager.cancel(IN_CALL_NOTIFICATION);
@@ -265,16 +408,50 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         }
 
         final int state = call.getState();
+        final boolean isIncoming =
+                state == Call.State.INCOMING || state == Call.State.CALL_WAITING;
+        final boolean isVideoUpgradeRequest = call.getSessionModificationState()
+                == Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST;
 
         // Check if data has changed; if nothing is different, don't issue another notification.
-        final int iconResId = getIconToDisplay(call);
-        final Bitmap largeIcon = getLargeIconToDisplay(contactInfo, call);
-        final int contentResId = getContentString(call);
-        final String contentTitle = getContentTitle(contactInfo, call);
+        final NotificationModel model = new NotificationModel(
+                call.getId(),
+                state,
+                getIconToDisplay(call),
+                getContentString(call),
+                getContentTitle(contactInfo, call),
+                getLargeIconSource(contactInfo, call),
+                isVideoUpgradeRequest,
+                isIncoming && call.isVideoCall(mContext),
+                state == Call.State.ACTIVE ? call.getConnectTimeMillis() : 0,
+                isIncoming && !InCallPresenter.getInstance().isShowingInCallUi(),
+                getPersonReference(contactInfo, call));
+
+        if (mIsShowingNotification && model.equals(mSavedModel)) {
+            // Whatever was held back has been superseded by what is already showing.
+            clearDeferredUpdate();
+            mSkippedCount++;
+            return;
+        }
 
-        if (!checkForChangeAndSaveData(iconResId, contentResId, largeIcon, contentTitle, state)) {
+        // State transitions, such as incoming to active, are shown right away. Other changes
+        // are held back until MIN_UPDATE_INTERVAL_MS has passed since the last notification.
+        final long now = SystemClock.uptimeMillis();
+        if (mIsShowingNotification && mSavedModel != null && !mSavedModel.isTransitionTo(model)
+                && now - mLastNotifyTime < MIN_UPDATE_INTERVAL_MS) {
+            mDeferredCount++;
+            mDeferredCallId = call.getId();
+            mDeferredContactInfo = contactInfo;
+            if (!mDeferredUpdateHandler.hasMessages(0)) {
+                mDeferredUpdateHandler.sendEmptyMessageAtTime(0,
+                        mLastNotifyTime + MIN_UPDATE_INTERVAL_MS);
+            }
             return;
         }
+        clearDeferredUpdate();
+
+        Log.d(this, "Data changed.  Showing notification");
+        final Bitmap largeIcon = getLargeIconToDisplay(model.largeIconSource);
 
         /*
          * Nothing more to check...build and send it.
@@ -282,7 +459,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         final Notification.Builder builder = getNotificationBuilder();
 
         // Set up the main intent to send the user to the in-call screen
-        final PendingIntent inCallPendingIntent = createLaunchPendingIntent();
+        final PendingIntent inCallPendingIntent = mIntents.getLaunchPendingIntent();
         builder.setContentIntent(inCallPendingIntent);
 
         // Set the intent as a full screen intent as well if a call is incoming
@@ -294,14 +471,12 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         }
 
         // Set the content
-        builder.setContentText(mContext.getString(contentResId));
-        builder.setSmallIcon(iconResId);
-        builder.setContentTitle(contentTitle);
+        builder.setContentText(mContext.getString(model.contentResId));
+        builder.setSmallIcon(model.iconResId);
+        builder.setContentTitle(model.contentTitle);
         builder.setLargeIcon(largeIcon);
         builder.setColor(mContext.getResources().getColor(R.color.dialer_theme_color));
 
-        final boolean isVideoUpgradeRequest = call.getSessionModificationState()
-                == Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST;
         if (isVideoUpgradeRequest) {
             builder.setUsesChronometer(false);
             addDismissUpgradeRequestAction(builder);
@@ -310,7 +485,9 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
             createIncomingCallNotification(call, state, builder);
         }
 
-        addPersonReference(builder, contactInfo, call);
+        if (model.person != null) {
+            builder.addPerson(model.person);
+        }
 
         /*
          * Fire off the notification
@@ -319,6 +496,37 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         Log.d(this, "Notifying IN_CALL_NOTIFICATION: " + notification);
         mNotificationManager.notify(IN_CALL_NOTIFICATION, notification);
         mIsShowingNotification = true;
+        mSavedModel = model;
+        mLastNotifyTime = now;
+        mPostedCount++;
+    }
+
+    private void postDeferredUpdate() {
+        final String callId = mDeferredCallId;
+        final ContactCacheEntry contactInfo = mDeferredContactInfo;
+        mDeferredCallId = null;
+        mDeferredContactInfo = null;
+        if (callId == null) {
+            return;
+        }
+        final Call call = CallList.getInstance().getCallById(callId);
+        if (call != null) {
+            buildAndSendNotification(call, contactInfo);
+        }
+    }
+
+    private void clearDeferredUpdate() {
+        mDeferredUpdateHandler.removeMessages(0);
+        mDeferredCallId = null;
+        mDeferredContactInfo = null;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("StatusBarNotifier:");
+        pw.println("  showing: " + mIsShowingNotification);
+        pw.println("  posted: " + mPostedCount);
+        pw.println("  skippedUnchanged: " + mSkippedCount);
+        pw.println("  deferred: " + mDeferredCount);
     }
 
     private void createIncomingCallNotification(
@@ -346,45 +554,6 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         }
     }
 
-    /**
-     * Checks the new notification data and compares it against any notification that we
-     * are already displaying. If the data is exactly the same, we return false so that
-     * we do not issue a new notification for the exact same data.
-     */
-    private boolean checkForChangeAndSaveData(int icon, int content, Bitmap largeIcon,
-            String contentTitle, int state) {
-
-        // The two are different:
-        // if new title is not null, it should be different from saved version OR
-        // if new title is null, the saved version should not be null
-        final boolean contentTitleChanged =
-                (contentTitle != null && !contentTitle.equals(mSavedContentTitle)) ||
-                (contentTitle == null && mSavedContentTitle != null);
-
-        // any change means we are definitely updating
-        boolean retval = (mSavedIcon != icon) || (mSavedContent != content) ||
-                (mCallState != state) || (mSavedLargeIcon != largeIcon) ||
-                contentTitleChanged;
-
-        // If we aren't showing a notification right now, definitely start showing one.
-        if (!mIsShowingNotification) {
-            Log.d(this, "Showing notification for first time.");
-            retval = true;
-        }
-
-        mSavedIcon = icon;
-        mSavedContent = content;
-        mCallState = state;
-        mSavedLargeIcon = largeIcon;
-        mSavedContentTitle = contentTitle;
-
-        if (retval) {
-            Log.d(this, "Data changed.  Showing notification");
-        }
-
-        return retval;
-    }
-
     /**
      * Returns the main string to use in the notification.
      */
@@ -401,35 +570,61 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         return contactInfo.name;
     }
 
-    private void addPersonReference(Notification.Builder builder, ContactCacheEntry contactInfo,
-            Call call) {
+    private String getPersonReference(ContactCacheEntry contactInfo, Call call) {
         if (contactInfo.lookupUri != null) {
-            builder.addPerson(contactInfo.lookupUri.toString());
+            return contactInfo.lookupUri.toString();
         } else if (!TextUtils.isEmpty(call.getNumber())) {
-            builder.addPerson(Uri.fromParts(PhoneAccount.SCHEME_TEL,
-                            call.getNumber(), null).toString());
+            return Uri.fromParts(PhoneAccount.SCHEME_TEL, call.getNumber(), null).toString();
         }
+        return null;
     }
 
     /**
-     * Gets a large icon from the contact info object to display in the notification.
+     * Returns what the large icon is made from: the contact photo bitmap, the conference
+     * resource id, or null if there is no large icon.
      */
-    private Bitmap getLargeIconToDisplay(ContactCacheEntry contactInfo, Call call) {
-        Bitmap largeIcon = null;
+    private Object getLargeIconSource(ContactCacheEntry contactInfo, Call call) {
+        if (contactInfo.photo != null && (contactInfo.photo instanceof BitmapDrawable)) {
+            return ((BitmapDrawable) contactInfo.photo).getBitmap();
+        }
         if (call.isConferenceCall() && !call.can(Details.CAPABILITY_GENERIC_CONFERENCE)) {
-            largeIcon = BitmapFactory.decodeResource(mContext.getResources(),
-                    R.drawable.img_conference);
+            return R.drawable.img_conference;
         }
-        if (contactInfo.photo != null && (contactInfo.photo instanceof BitmapDrawable)) {
-            largeIcon = ((BitmapDrawable) contactInfo.photo).getBitmap();
+        return null;
+    }
+
+    /**
+     * Gets the rounded, notification sized large icon for a source returned by
+     * {@link #getLargeIconSource}. Icons are cached, so posting the same photo again does not
+     * decode or round anything.
+     */
+    private Bitmap getLargeIconToDisplay(Object source) {
+        if (source == null) {
+            return null;
+        }
+        final int height = (int) mContext.getResources().getDimension(
+                android.R.dimen.notification_large_icon_height);
+        final int width = (int) mContext.getResources().getDimension(
+                android.R.dimen.notification_large_icon_width);
+
+        if (!(source instanceof Bitmap)) {
+            // The conference icon is decoded and rounded once per session.
+            if (mConferenceLargeIcon == null || mConferenceLargeIconWidth != width
+                    || mConferenceLargeIconHeight != height) {
+                final Bitmap conference = BitmapFactory.decodeResource(mContext.getResources(),
+                        R.drawable.img_conference);
+                mConferenceLargeIcon = BitmapUtil.getRoundedBitmap(conference, width, height);
+                mConferenceLargeIconWidth = width;
+                mConferenceLargeIconHeight = height;
+            }
+            return mConferenceLargeIcon;
         }
 
-        if (largeIcon != null) {
-            final int height = (int) mContext.getResources().getDimension(
-                    android.R.dimen.notification_large_icon_height);
-            final int width = (int) mContext.getResources().getDimension(
-                    android.R.dimen.notification_large_icon_width);
-            largeIcon = BitmapUtil.getRoundedBitmap(largeIcon, width, height);
+        final LargeIconKey key = new LargeIconKey((Bitmap) source, width, height);
+        Bitmap largeIcon = mLargeIcons.get(key);
+        if (largeIcon == null) {
+            largeIcon = BitmapUtil.getRoundedBitmap((Bitmap) source, width, height);
+            mLargeIcons.put(key, largeIcon);
         }
         return largeIcon;
     }
@@ -504,70 +699,37 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
 
     private void addAnswerAction(Notification.Builder builder) {
         Log.i(this, "Will show \"answer\" action in the incoming call Notification");
-
-        PendingIntent answerVoicePendingIntent = createNotificationPendingIntent(
-                mContext, InCallApp.ACTION_ANSWER_VOICE_INCOMING_CALL);
-        builder.addAction(R.drawable.ic_call_white_24dp,
-                mContext.getText(R.string.notification_action_answer),
-                answerVoicePendingIntent);
+        builder.addAction(mIntents.getAnswerAction());
     }
 
     private void addDismissAction(Notification.Builder builder) {
         Log.i(this, "Will show \"dismiss\" action in the incoming call Notification");
-
-        PendingIntent declinePendingIntent =
-                createNotificationPendingIntent(mContext, InCallApp.ACTION_DECLINE_INCOMING_CALL);
-        builder.addAction(R.drawable.ic_close_dk,
-                mContext.getText(R.string.notification_action_dismiss),
-                declinePendingIntent);
+        builder.addAction(mIntents.getDismissAction());
     }
 
     private void addHangupAction(Notification.Builder builder) {
         Log.i(this, "Will show \"hang-up\" action in the ongoing active call Notification");
-
-        PendingIntent hangupPendingIntent =
-                createNotificationPendingIntent(mContext, InCallApp.ACTION_HANG_UP_ONGOING_CALL);
-        builder.addAction(R.drawable.ic_call_end_white_24dp,
-                mContext.getText(R.string.notification_action_end_call),
-                hangupPendingIntent);
+        builder.addAction(mIntents.getHangupAction());
     }
 
     private void addVideoCallAction(Notification.Builder builder) {
         Log.i(this, "Will show \"video\" action in the incoming call Notification");
-
-        PendingIntent answerVideoPendingIntent = createNotificationPendingIntent(
-                mContext, InCallApp.ACTION_ANSWER_VIDEO_INCOMING_CALL);
-        builder.addAction(R.drawable.ic_videocam,
-                mContext.getText(R.string.notification_action_answer_video),
-                answerVideoPendingIntent);
+        builder.addAction(mIntents.getAnswerVideoAction());
     }
 
     private void addVoiceAction(Notification.Builder builder) {
         Log.i(this, "Will show \"voice\" action in the incoming call Notification");
-
-        PendingIntent answerVoicePendingIntent = createNotificationPendingIntent(
-                mContext, InCallApp.ACTION_ANSWER_VOICE_INCOMING_CALL);
-        builder.addAction(R.drawable.ic_call_white_24dp,
-                mContext.getText(R.string.notification_action_answer_voice),
-                answerVoicePendingIntent);
+        builder.addAction(mIntents.getAnswerVoiceAction());
     }
 
     private void addAcceptUpgradeRequestAction(Notification.Builder builder) {
         Log.i(this, "Will show \"accept\" action in the incoming call Notification");
-
-        PendingIntent acceptVideoPendingIntent = createNotificationPendingIntent(
-                mContext, InCallApp.ACTION_ANSWER_VOICE_INCOMING_CALL);
-        builder.addAction(0, mContext.getText(R.string.notification_action_accept),
-        acceptVideoPendingIntent);
+        builder.addAction(mIntents.getAcceptUpgradeRequestAction());
     }
 
     private void addDismissUpgradeRequestAction(Notification.Builder builder) {
         Log.i(this, "Will show \"dismiss\" action in the incoming call Notification");
-
-        PendingIntent declineVideoPendingIntent = createNotificationPendingIntent(
-                mContext, InCallApp.ACTION_ANSWER_VOICE_INCOMING_CALL);
-        builder.addAction(0, mContext.getText(R.string.notification_action_dismiss),
-                declineVideoPendingIntent);
+        builder.addAction(mIntents.getDismissUpgradeRequestAction());
     }
 
     /**
@@ -629,31 +791,4 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
 
         return builder;
     }
-
-    private PendingIntent createLaunchPendingIntent() {
-
-        final Intent intent = InCallPresenter.getInstance().getInCallIntent(
-                false /* showDialpad */, false /* newOutgoingCall */,
-                        false /* showCircularReveal */);
-
-        // PendingIntent that can be used to launch the InCallActivity.  The
-        // system fires off this intent if the user pulls down the windowshade
-        // and clicks the notification's expanded view.  It's also used to
-        // launch the InCallActivity immediately when when there's an incoming
-        // call (see the "fullScreenIntent" field below).
-        PendingIntent inCallPendingIntent = PendingIntent.getActivity(mContext, 0, intent, 0);
-
-        return inCallPendingIntent;
-    }
-
-    /**
-     * Returns PendingIntent for answering a phone call. This will typically be used from
-     * Notification context.
-     */
-    private static PendingIntent createNotificationPendingIntent(Context context, String action) {
-        final Intent intent = new Intent(action, null,
-                context, NotificationBroadcastReceiver.class);
-        return PendingIntent.getBroadcast(context, 0, intent, 0);
-    }
-
 }
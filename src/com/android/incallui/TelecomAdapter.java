@@ -23,6 +23,7 @@ import android.os.Looper;
 import android.telecom.InCallAdapter;
 import android.telecom.Phone;
 import android.telecom.PhoneAccountHandle;
+import android.telecom.VideoProfile;
 
 import com.google.common.base.Preconditions;
 
@@ -70,6 +71,9 @@ final class TelecomAdapter implements InCallPhoneListener {
         if (mPhone != null) {
             final android.telecom.Call call = getTelecommCallById(callId);
             if (call != null) {
+                if (videoState != VideoProfile.VideoState.AUDIO_ONLY) {
+                    FrameStatsRecorder.getInstance().onVideoAnswered();
+                }
                 call.answer(videoState);
             } else {
                 Log.e(this, "error answerCall, call not in call list: " + callId);
@@ -28,6 +28,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewStub;
 import android.view.ViewTreeObserver;
+import android.widget.TextView;
 
 /**
  * Fragment containing video calling surfaces.
@@ -50,11 +51,16 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
      */
     public static final int SURFACE_PREVIEW = 2;
 
+    private static final long VIDEO_STATS_OVERLAY_UPDATE_INTERVAL_MS = 1000;
+
     // Static storage used to retain the video surfaces across Activity restart.
     // TextureViews are not parcelable, so it is not possible to store them in the saved state.
     private static boolean sVideoSurfacesInUse = false;
     private static VideoCallSurface sPreviewSurface = null;
     private static VideoCallSurface sDisplaySurface = null;
+    // A detached SurfaceTexture created ahead of time for the preview surface, to be adopted by
+    // the next preview VideoCallSurface.
+    private static SurfaceTexture sPrewarmedPreviewTexture = null;
 
     /**
      * {@link ViewStub} holding the video call surfaces.  This is the parent for the
@@ -68,6 +74,25 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
      */
     private View mVideoViews;
 
+    /**
+     * Overlay showing the {@link VideoStatsRecorder} statistics, when verbose logging is enabled.
+     */
+    private TextView mVideoStatsOverlay;
+
+    /**
+     * Refreshes the statistics overlay once a second while it is shown.
+     */
+    private final Runnable mUpdateVideoStatsOverlay = new Runnable() {
+        @Override
+        public void run() {
+            if (mVideoStatsOverlay == null || !mVideoStatsOverlay.isShown()) {
+                return;
+            }
+            mVideoStatsOverlay.setText(VideoStatsRecorder.getInstance().getOverlayText());
+            mVideoStatsOverlay.postDelayed(this, VIDEO_STATS_OVERLAY_UPDATE_INTERVAL_MS);
+        }
+    };
+
     /**
      * {@code True} when the entering the activity again after a restart due to orientation change.
      */
@@ -124,9 +149,27 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
          * @param height The height of the surface.
          */
         public VideoCallSurface(int surfaceId, TextureView textureView, int width, int height) {
+            this(surfaceId, textureView, width, height, null);
+        }
+
+        /**
+         * Creates an instance of a {@link VideoCallSurface} which uses an existing
+         * {@link SurfaceTexture}, so that its {@link Surface} can be created as soon as its
+         * dimensions are known rather than once the {@link TextureView} has been laid out.
+         *
+         * @param surfaceId The surface ID of the surface.
+         * @param textureView The {@link TextureView} for the surface.
+         * @param width The width of the surface.
+         * @param height The height of the surface.
+         * @param surfaceTexture A {@link SurfaceTexture} which is not attached to a GL context, or
+         *         {@code null} to use the one created by the {@link TextureView}.
+         */
+        public VideoCallSurface(int surfaceId, TextureView textureView, int width, int height,
+                SurfaceTexture surfaceTexture) {
             mWidth = width;
             mHeight = height;
             mSurfaceId = surfaceId;
+            mSavedSurfaceTexture = surfaceTexture;
 
             recreateView(textureView);
         }
@@ -219,7 +262,10 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
          */
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surface) {
-            // Not Handled
+            if (mSurfaceId == SURFACE_PREVIEW) {
+                FrameStatsRecorder.getInstance().onPreviewFrame();
+            }
+            VideoStatsRecorder.getInstance().onFrame(mSurfaceId);
         }
 
         /**
@@ -262,6 +308,9 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
          * @param height The height of the surface, in pixels.
          */
         public void setSurfaceDimensions(int width, int height) {
+            if (width == mWidth && height == mHeight && mSavedSurface != null) {
+                return;
+            }
             mWidth = width;
             mHeight = height;
 
@@ -358,6 +407,13 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        // The prewarmed texture is only worth keeping for this view's surfaces.
+        releasePrewarmedPreviewSurface();
+        super.onDestroyView();
+    }
+
     /**
      * Centers the display view vertically for portrait orientation, and horizontally for
      * lanscape orientations.  The view is centered within the available space not occupied by
@@ -446,6 +502,25 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
         if (mVideoViews != null ) {
             mVideoViews.setVisibility(visibility);
         }
+        updateVideoStatsOverlay(show);
+    }
+
+    /**
+     * Shows or hides the video statistics overlay. It is only shown when verbose logging is
+     * enabled.
+     */
+    private void updateVideoStatsOverlay(boolean show) {
+        if (mVideoStatsOverlay == null) {
+            if (!show || !Log.VERBOSE || mVideoViews == null) {
+                return;
+            }
+            mVideoStatsOverlay = (TextView) mVideoViews.findViewById(R.id.videoStatsOverlay);
+        }
+        mVideoStatsOverlay.removeCallbacks(mUpdateVideoStatsOverlay);
+        mVideoStatsOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+        if (show) {
+            mVideoStatsOverlay.post(mUpdateVideoStatsOverlay);
+        }
     }
 
     /**
@@ -463,9 +538,46 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
             sPreviewSurface.setDoneWithSurface();
             sPreviewSurface = null;
         }
+        releasePrewarmedPreviewSurface();
         sVideoSurfacesInUse = false;
     }
 
+    /**
+     * Releases the {@link SurfaceTexture} created by {@link #prewarmPreviewSurface} if no preview
+     * surface has adopted it, e.g. because the video call or upgrade request was declined.
+     */
+    @Override
+    public void releasePrewarmedPreviewSurface() {
+        if (sPrewarmedPreviewTexture != null) {
+            sPrewarmedPreviewTexture.release();
+            sPrewarmedPreviewTexture = null;
+        }
+    }
+
+    /**
+     * Gets the video surfaces ready ahead of a likely switch to video: inflates the video views,
+     * which stay hidden, and creates the {@link SurfaceTexture} for the preview surface.
+     */
+    @Override
+    public void prewarmPreviewSurface() {
+        if (mVideoViews == null) {
+            mVideoViews = mVideoViewsStub.inflate();
+            mVideoViews.setVisibility(View.GONE);
+        }
+        if (sVideoSurfacesInUse || sPrewarmedPreviewTexture != null) {
+            return;
+        }
+        try {
+            // TextureView attaches a SurfaceTexture it is given to its own GL context, so it must
+            // be detached first. Without a current GL context, this only marks it detached.
+            final SurfaceTexture surfaceTexture = new SurfaceTexture(0);
+            surfaceTexture.detachFromGLContext();
+            sPrewarmedPreviewTexture = surfaceTexture;
+        } catch (RuntimeException e) {
+            Log.w(this, "Unable to prewarm the preview surface: " + e);
+        }
+    }
+
     @Override
     public boolean isActivityRestart() {
         return mIsActivityRestart;
@@ -522,9 +634,12 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
             }
 
             ViewGroup.LayoutParams params = preview.getLayoutParams();
-            params.width = width;
-            params.height = height;
-            preview.setLayoutParams(params);
+            if (params.width != width || params.height != height) {
+                // Only request a layout when the size actually changes.
+                params.width = width;
+                params.height = height;
+                preview.setLayoutParams(params);
+            }
 
             sPreviewSurface.setSurfaceDimensions(width, height);
         }
@@ -552,7 +667,9 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
                         (TextureView) mVideoViews.findViewById(R.id.incomingVideo), screenSize.x,
                         screenSize.y);
                 sPreviewSurface = new VideoCallSurface(SURFACE_PREVIEW,
-                        (TextureView) mVideoViews.findViewById(R.id.previewVideo));
+                        (TextureView) mVideoViews.findViewById(R.id.previewVideo),
+                        DIMENSIONS_NOT_SET, DIMENSIONS_NOT_SET, sPrewarmedPreviewTexture);
+                sPrewarmedPreviewTexture = null;
                 sVideoSurfacesInUse = true;
             } else {
                 // In this case, the video surfaces are already in use (we are recreating the
@@ -575,9 +692,11 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
     private void setSurfaceSizeAndTranslation(TextureView textureView, Point size) {
         // Set the surface to have that size.
         ViewGroup.LayoutParams params = textureView.getLayoutParams();
-        params.width = size.x;
-        params.height = size.y;
-        textureView.setLayoutParams(params);
+        if (params.width != size.x || params.height != size.y) {
+            params.width = size.x;
+            params.height = size.y;
+            textureView.setLayoutParams(params);
+        }
 
         // It is only possible to center the display view if layout of the views has completed.
         // It is only after layout is complete that the dimensions of the Call Card has been
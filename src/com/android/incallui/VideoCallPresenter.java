@@ -281,6 +281,10 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
     @Override
     public void onIncomingCall(InCallPresenter.InCallState oldState,
             InCallPresenter.InCallState newState, Call call) {
+        if (CallUtil.isVideoEnabled(mContext) && call.isVideoCall(mContext)) {
+            prewarmVideo();
+        }
+
         // same logic should happen as with onStateChange()
         onStateChange(oldState, newState, CallList.getInstance());
     }
@@ -330,6 +334,16 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
                 exitVideoMode();
             }
         }
+
+        // A preview surface prepared for a video answer or an upgrade request is no longer
+        // needed once the call is not going to video.
+        if (mPrimaryCall == null || (!mIsVideoCall && mPrimaryCall.getSessionModificationState()
+                != Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST)) {
+            final VideoCallUi ui = getUi();
+            if (ui != null) {
+                ui.releasePrewarmedPreviewSurface();
+            }
+        }
     }
 
     /**
@@ -415,12 +429,20 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
                 return;
             }
 
+            VideoStatsRecorder.getInstance().startSession();
             mPreviewSurfaceState = PreviewSurfaceState.CAMERA_SET;
             InCallCameraManager cameraManager = InCallPresenter.getInstance().
                     getInCallCameraManager();
             mVideoCall.setCamera(cameraManager.getActiveCameraId());
             mVideoCall.requestCameraCapabilities();
 
+            // Size the preview surface from the camera characteristics until telephony reports
+            // the camera dimensions, so it is ready as early as possible.
+            final float aspectRatio = cameraManager.getActiveCameraAspectRatio();
+            if (aspectRatio > 0) {
+                setPreviewSize(mDeviceOrientation, aspectRatio);
+            }
+
             if (ui.isDisplayVideoSurfaceCreated()) {
                 mVideoCall.setDisplaySurface(ui.getDisplayVideoSurface());
             }
@@ -434,12 +456,14 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
      * Exits video mode by hiding the video surfaces  and making other adjustments (eg. audio).
      */
     private void exitVideoMode() {
+        FrameStatsRecorder.getInstance().onVideoModeExited();
         VideoCallUi ui = getUi();
         if (ui == null) {
             return;
         }
         InCallPresenter.getInstance().setInCallAllowsOrientationChange(false);
         ui.showVideoUi(false);
+        VideoStatsRecorder.getInstance().endSession();
 
         if (mPreVideoAudioMode != AudioModeProvider.AUDIO_MODE_INVALID) {
             TelecomAdapter.getInstance().setAudioRoute(mPreVideoAudioMode);
@@ -476,6 +500,8 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
             return;
         }
 
+        VideoStatsRecorder.getInstance().onResolutionChanged(VideoCallFragment.SURFACE_DISPLAY,
+                width, height);
         // TODO(vt): Change display surface aspect ratio.
     }
 
@@ -499,6 +525,8 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         }
 
         mPreviewSurfaceState = PreviewSurfaceState.CAPABILITIES_RECEIVED;
+        VideoStatsRecorder.getInstance().onResolutionChanged(VideoCallFragment.SURFACE_PREVIEW,
+                width, height);
 
         // Configure the preview surface to the correct aspect ratio.
         float aspectRatio = 1.0f;
@@ -529,6 +557,20 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
     public void onUpgradeToVideoRequest(Call call) {
         mPrimaryCall.setSessionModificationState(
                 Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST);
+        prewarmVideo();
+    }
+
+    /**
+     * Speculatively prepares for entering video mode, for a video call which is likely to be
+     * answered or an upgrade request which is likely to be accepted. The cameras are looked up and
+     * the preview surface is created, so that neither delays the first preview frame.
+     */
+    private void prewarmVideo() {
+        InCallCameraManager.warmUp(mContext);
+        final VideoCallUi ui = getUi();
+        if (ui != null) {
+            ui.prewarmPreviewSurface();
+        }
     }
 
     @Override
@@ -599,6 +641,8 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         Surface getPreviewVideoSurface();
         void setPreviewSize(int width, int height);
         void cleanupSurfaces();
+        void prewarmPreviewSurface();
+        void releasePrewarmedPreviewSurface();
         boolean isActivityRestart();
     }
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import java.io.PrintWriter;
+
+/**
+ * Keeps statistics of the frames shown on the video call surfaces: frame rate, inter-frame
+ * jitter, freezes and resolution changes. They tell apart video which is choppy because frames
+ * don't arrive (the network or the video provider) from video which is choppy because they
+ * arrive but aren't shown smoothly.
+ *
+ * Fed from the {@link VideoCallFragment} surfaces, printed as part of the InCallServiceImpl dump
+ * output and shown in a debug overlay when verbose logging is on. All methods must be called on
+ * the main thread.
+ */
+public class VideoStatsRecorder {
+
+    private static final long NANOS_PER_MS = 1000000;
+    private static final long NANOS_PER_SECOND = 1000 * NANOS_PER_MS;
+    // A gap between frames at least this long is counted as a freeze.
+    private static final long FREEZE_THRESHOLD_NANOS = 300 * NANOS_PER_MS;
+
+    private static VideoStatsRecorder sInstance;
+
+    /**
+     * Statistics of one surface for the current video session.
+     */
+    private static class SurfaceStats {
+        final String name;
+
+        long frameCount;
+        long firstFrameNanos;
+        long lastFrameNanos;
+        long lastIntervalNanos;
+        // Smoothed variation between consecutive frame intervals, as in RFC 3550.
+        long jitterNanos;
+
+        // Frame rate over the last complete window of about a second.
+        long windowStartNanos;
+        int windowFrameCount;
+        float currentFps;
+
+        int freezeCount;
+        long frozenNanos;
+        long longestFreezeNanos;
+
+        int width;
+        int height;
+        int resolutionChangeCount;
+
+        SurfaceStats(String name) {
+            this.name = name;
+        }
+
+        void reset() {
+            frameCount = 0;
+            firstFrameNanos = 0;
+            lastFrameNanos = 0;
+            lastIntervalNanos = 0;
+            jitterNanos = 0;
+            windowStartNanos = 0;
+            windowFrameCount = 0;
+            currentFps = 0;
+            freezeCount = 0;
+            frozenNanos = 0;
+            longestFreezeNanos = 0;
+            width = 0;
+            height = 0;
+            resolutionChangeCount = 0;
+        }
+
+        void onFrame(long now) {
+            if (frameCount == 0) {
+                firstFrameNanos = now;
+                windowStartNanos = now;
+            } else {
+                final long interval = now - lastFrameNanos;
+                if (lastIntervalNanos > 0) {
+                    jitterNanos += (Math.abs(interval - lastIntervalNanos) - jitterNanos) / 16;
+                }
+                lastIntervalNanos = interval;
+
+                if (interval >= FREEZE_THRESHOLD_NANOS) {
+                    freezeCount++;
+                    frozenNanos += interval;
+                    longestFreezeNanos = Math.max(longestFreezeNanos, interval);
+                }
+            }
+            frameCount++;
+            lastFrameNanos = now;
+
+            windowFrameCount++;
+            final long windowNanos = now - windowStartNanos;
+            if (windowNanos >= NANOS_PER_SECOND) {
+                currentFps = (float) windowFrameCount * NANOS_PER_SECOND / windowNanos;
+                windowStartNanos = now;
+                windowFrameCount = 0;
+            }
+        }
+
+        void onResolution(int newWidth, int newHeight) {
+            if (newWidth == width && newHeight == height) {
+                return;
+            }
+            if (width != 0 || height != 0) {
+                resolutionChangeCount++;
+            }
+            width = newWidth;
+            height = newHeight;
+        }
+
+        float getAverageFps() {
+            final long duration = lastFrameNanos - firstFrameNanos;
+            return duration <= 0 ? 0 : (float) (frameCount - 1) * NANOS_PER_SECOND / duration;
+        }
+
+        /**
+         * Returns how long the surface has been without a new frame if that counts as a freeze,
+         * otherwise 0.
+         */
+        long getCurrentFreezeNanos(long now) {
+            final long sinceLastFrame = now - lastFrameNanos;
+            return frameCount > 0 && sinceLastFrame >= FREEZE_THRESHOLD_NANOS ? sinceLastFrame : 0;
+        }
+
+        void appendSummary(StringBuilder sb, long now, String indent, String separator) {
+            sb.append(indent).append(name).append(": ")
+                    .append(width).append('x').append(height)
+                    .append(" fps=").append(formatDecimal(currentFps))
+                    .append(" avgFps=").append(formatDecimal(getAverageFps()))
+                    .append(separator)
+                    .append(indent).append("  frames=").append(frameCount)
+                    .append(" jitterMs=").append(formatDecimal(
+                            (float) jitterNanos / NANOS_PER_MS))
+                    .append(" resolutionChanges=").append(resolutionChangeCount)
+                    .append(separator)
+                    .append(indent).append("  freezes=").append(freezeCount)
+                    .append(" frozenMs=").append(frozenNanos / NANOS_PER_MS)
+                    .append(" longestFreezeMs=").append(longestFreezeNanos / NANOS_PER_MS)
+                    .append(" currentFreezeMs=")
+                    .append(getCurrentFreezeNanos(now) / NANOS_PER_MS);
+        }
+    }
+
+    private final SurfaceStats mDisplayStats = new SurfaceStats("peer");
+    private final SurfaceStats mPreviewStats = new SurfaceStats("preview");
+    private boolean mSessionActive;
+    private long mSessionEndNanos;
+    private int mSessionCount;
+    private final StringBuilder mSummaryBuilder = new StringBuilder();
+
+    public static synchronized VideoStatsRecorder getInstance() {
+        if (sInstance == null) {
+            sInstance = new VideoStatsRecorder();
+        }
+        return sInstance;
+    }
+
+    private VideoStatsRecorder() {
+    }
+
+    /**
+     * Clears the statistics when a call enters video mode. They are kept after it leaves video
+     * mode, for the dump output.
+     */
+    public void startSession() {
+        mDisplayStats.reset();
+        mPreviewStats.reset();
+        mSessionActive = true;
+        mSessionCount++;
+    }
+
+    public void endSession() {
+        if (mSessionActive) {
+            mSessionActive = false;
+            mSessionEndNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Called for every frame shown on a video surface.
+     *
+     * @param surfaceId {@link VideoCallFragment#SURFACE_DISPLAY} or
+     *         {@link VideoCallFragment#SURFACE_PREVIEW}.
+     */
+    public void onFrame(int surfaceId) {
+        final SurfaceStats stats = getStats(surfaceId);
+        if (mSessionActive && stats != null) {
+            stats.onFrame(System.nanoTime());
+        }
+    }
+
+    /**
+     * Called when the resolution of the video shown on a surface changes.
+     */
+    public void onResolutionChanged(int surfaceId, int width, int height) {
+        final SurfaceStats stats = getStats(surfaceId);
+        if (mSessionActive && stats != null) {
+            stats.onResolution(width, height);
+        }
+    }
+
+    /**
+     * Returns a short multi-line summary for the debug overlay.
+     */
+    public CharSequence getOverlayText() {
+        final long now = getSummaryTime();
+        mSummaryBuilder.setLength(0);
+        mDisplayStats.appendSummary(mSummaryBuilder, now, "", "\n");
+        mSummaryBuilder.append('\n');
+        mPreviewStats.appendSummary(mSummaryBuilder, now, "", "\n");
+        return mSummaryBuilder.toString();
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("VideoStatsRecorder:");
+        pw.println("  sessions: " + mSessionCount);
+        pw.println("  sessionActive: " + mSessionActive);
+        if (mSessionCount == 0) {
+            return;
+        }
+        final long now = getSummaryTime();
+        final StringBuilder sb = new StringBuilder();
+        mDisplayStats.appendSummary(sb, now, "  ", "\n");
+        sb.append('\n');
+        mPreviewStats.appendSummary(sb, now, "  ", "\n");
+        pw.println(sb.toString());
+    }
+
+    /**
+     * Returns the time up to which a freeze in progress is measured. Once the session has ended
+     * no more frames are expected, so that is when the session ended.
+     */
+    private long getSummaryTime() {
+        return mSessionActive ? System.nanoTime() : mSessionEndNanos;
+    }
+
+    private SurfaceStats getStats(int surfaceId) {
+        switch (surfaceId) {
+            case VideoCallFragment.SURFACE_DISPLAY:
+                return mDisplayStats;
+            case VideoCallFragment.SURFACE_PREVIEW:
+                return mPreviewStats;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Formats a value with one decimal, without the allocations of String.format.
+     */
+    private static String formatDecimal(float value) {
+        final long tenths = Math.round(value * 10);
+        return (tenths / 10) + "." + Math.abs(tenths % 10);
+    }
+}
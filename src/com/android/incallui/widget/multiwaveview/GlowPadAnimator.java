@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui.widget.multiwaveview;
+
+import android.animation.TimeInterpolator;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.provider.Settings;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the GlowPadView animations from a single Choreographer frame callback.
+ *
+ * Animated values are read and written through typed {@link Property} instances rather than
+ * by reflection, and {@link Animation} objects are pooled, so a running animation does not
+ * allocate. Like ValueAnimator, durations and delays are scaled by the animator duration scale
+ * developer setting. Must only be used on the main thread.
+ */
+class GlowPadAnimator {
+    private static final int MAX_PROPERTIES = 4;
+    private static final long NANOS_PER_MS = 1000000;
+
+    /**
+     * A float property of an animation target.
+     */
+    static abstract class Property<T> {
+        abstract float get(T target);
+        abstract void set(T target, float value);
+    }
+
+    static final Property<TargetDrawable> TARGET_ALPHA = new Property<TargetDrawable>() {
+        float get(TargetDrawable target) { return target.getAlpha(); }
+        void set(TargetDrawable target, float value) { target.setAlpha(value); }
+    };
+
+    static final Property<TargetDrawable> TARGET_SCALE_X = new Property<TargetDrawable>() {
+        float get(TargetDrawable target) { return target.getScaleX(); }
+        void set(TargetDrawable target, float value) { target.setScaleX(value); }
+    };
+
+    static final Property<TargetDrawable> TARGET_SCALE_Y = new Property<TargetDrawable>() {
+        float get(TargetDrawable target) { return target.getScaleY(); }
+        void set(TargetDrawable target, float value) { target.setScaleY(value); }
+    };
+
+    static final Property<PointCloud.WaveManager> WAVE_RADIUS =
+            new Property<PointCloud.WaveManager>() {
+        float get(PointCloud.WaveManager target) { return target.getRadius(); }
+        void set(PointCloud.WaveManager target, float value) { target.setRadius(value); }
+    };
+
+    static final Property<PointCloud.GlowManager> GLOW_ALPHA =
+            new Property<PointCloud.GlowManager>() {
+        float get(PointCloud.GlowManager target) { return target.getAlpha(); }
+        void set(PointCloud.GlowManager target, float value) { target.setAlpha(value); }
+    };
+
+    static final Property<PointCloud.GlowManager> GLOW_X =
+            new Property<PointCloud.GlowManager>() {
+        float get(PointCloud.GlowManager target) { return target.getX(); }
+        void set(PointCloud.GlowManager target, float value) { target.setX(value); }
+    };
+
+    static final Property<PointCloud.GlowManager> GLOW_Y =
+            new Property<PointCloud.GlowManager>() {
+        float get(PointCloud.GlowManager target) { return target.getY(); }
+        void set(PointCloud.GlowManager target, float value) { target.setY(value); }
+    };
+
+    static final Property<Drawable> DRAWABLE_ALPHA = new Property<Drawable>() {
+        float get(Drawable target) { return target.getAlpha(); }
+        void set(Drawable target, float value) { target.setAlpha((int) value); }
+    };
+
+    /**
+     * Receives animation lifecycle events. An animation that is cancelled still gets
+     * {@link #onAnimationEnd}, like {@link android.animation.Animator}.
+     */
+    static abstract class AnimationListener {
+        void onAnimationStart(Animation animation) {}
+        void onAnimationEnd(Animation animation) {}
+    }
+
+    interface UpdateListener {
+        void onAnimationUpdate(Animation animation);
+    }
+
+    /**
+     * Animates up to {@link #MAX_PROPERTIES} properties of one target. Obtained with
+     * {@link GlowPadAnimator#obtain} and handed back with {@link GlowPadAnimator#recycle} once
+     * the owner no longer refers to it.
+     */
+    final class Animation {
+        private Object mTarget;
+        private final Property[] mProperties = new Property[MAX_PROPERTIES];
+        private final float[] mFromValues = new float[MAX_PROPERTIES];
+        private final float[] mToValues = new float[MAX_PROPERTIES];
+        private int mPropertyCount;
+        private long mDuration;
+        private long mDelay;
+        // The animator duration scale when the animation was started.
+        private float mDurationScale = 1.0f;
+        private TimeInterpolator mInterpolator;
+        private AnimationListener mListener;
+        private AnimationListener mSecondaryListener;
+        private UpdateListener mUpdateListener;
+
+        // Set between start() and the end or cancellation of the animation.
+        private boolean mStarted;
+        // Set once the delay has elapsed and the start values have been read.
+        private boolean mInitialized;
+        private long mStartTimeNanos;
+        private long mCurrentPlayTime;
+
+        // Listeners may recycle the animation they are notified about. While a notification is
+        // on the stack, recycling is deferred until it returns, so the animation is not reset
+        // or handed out again from under its own dispatch.
+        private int mDispatchDepth;
+        private boolean mRecyclePending;
+
+        <T> Animation animate(Property<T> property, float toValue) {
+            if (mPropertyCount == MAX_PROPERTIES) {
+                throw new IllegalStateException("Too many properties");
+            }
+            mProperties[mPropertyCount] = property;
+            mToValues[mPropertyCount] = toValue;
+            mPropertyCount++;
+            return this;
+        }
+
+        Animation setDelay(long delay) {
+            mDelay = delay;
+            return this;
+        }
+
+        Animation setInterpolator(TimeInterpolator interpolator) {
+            mInterpolator = interpolator;
+            return this;
+        }
+
+        Animation setListener(AnimationListener listener) {
+            mListener = listener;
+            return this;
+        }
+
+        /**
+         * Sets a second listener, for observers that track animations independently of
+         * whoever started them.
+         */
+        Animation setSecondaryListener(AnimationListener listener) {
+            mSecondaryListener = listener;
+            return this;
+        }
+
+        Animation setUpdateListener(UpdateListener listener) {
+            mUpdateListener = listener;
+            return this;
+        }
+
+        boolean isRunning() {
+            return mStarted;
+        }
+
+        long getCurrentPlayTime() {
+            return mCurrentPlayTime;
+        }
+
+        void start() {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+            mInitialized = false;
+            mCurrentPlayTime = 0;
+            mDurationScale = getDurationScale();
+            mStartTimeNanos = System.nanoTime();
+            addActive(this);
+            dispatchStart();
+            if (mStarted && mDurationScale == 0) {
+                // Animations are off.
+                end();
+            }
+        }
+
+        void cancel() {
+            if (!mStarted) {
+                return;
+            }
+            finish();
+        }
+
+        /**
+         * Jumps to the end values. Like {@link android.animation.Animator#end}, an animation that
+         * was never started is started and ended.
+         */
+        void end() {
+            // Keep a recycle from a listener pending until the animation has fully ended.
+            mDispatchDepth++;
+            if (!mStarted && !mInitialized) {
+                mStarted = true;
+                dispatchStart();
+            }
+            for (int i = 0; i < mPropertyCount; i++) {
+                setValue(i, mToValues[i]);
+            }
+            mCurrentPlayTime = mDuration;
+            dispatchUpdate();
+            if (mStarted) {
+                finish();
+            }
+            endDispatch();
+        }
+
+        /**
+         * Advances the animation to the given frame time. Returns false once it has finished.
+         */
+        private boolean doFrame(long frameTimeNanos) {
+            // Play time in unscaled milliseconds, as getCurrentPlayTime() reports it.
+            final long playTime = (long) ((frameTimeNanos - mStartTimeNanos) / NANOS_PER_MS
+                    / mDurationScale) - mDelay;
+            if (playTime < 0) {
+                return true;
+            }
+            if (!mInitialized) {
+                // Like ObjectAnimator, start from the value the property has once the delay has
+                // elapsed.
+                mInitialized = true;
+                for (int i = 0; i < mPropertyCount; i++) {
+                    mFromValues[i] = getValue(i);
+                }
+            }
+
+            mCurrentPlayTime = Math.min(playTime, mDuration);
+            float fraction = mDuration > 0 ? (float) mCurrentPlayTime / mDuration : 1.0f;
+            if (mInterpolator != null) {
+                fraction = mInterpolator.getInterpolation(fraction);
+            }
+            for (int i = 0; i < mPropertyCount; i++) {
+                setValue(i, mFromValues[i] + (mToValues[i] - mFromValues[i]) * fraction);
+            }
+            dispatchUpdate();
+            if (!mStarted) {
+                // Cancelled by the update listener.
+                return false;
+            }
+            if (mCurrentPlayTime >= mDuration) {
+                finish();
+                return false;
+            }
+            return true;
+        }
+
+        private void finish() {
+            mStarted = false;
+            mInitialized = true;
+            removeActive(this);
+            final AnimationListener listener = mListener;
+            final AnimationListener secondaryListener = mSecondaryListener;
+            mDispatchDepth++;
+            if (listener != null) {
+                listener.onAnimationEnd(this);
+            }
+            if (secondaryListener != null) {
+                secondaryListener.onAnimationEnd(this);
+            }
+            endDispatch();
+        }
+
+        private void dispatchStart() {
+            final AnimationListener listener = mListener;
+            final AnimationListener secondaryListener = mSecondaryListener;
+            mDispatchDepth++;
+            if (listener != null) {
+                listener.onAnimationStart(this);
+            }
+            if (secondaryListener != null) {
+                secondaryListener.onAnimationStart(this);
+            }
+            endDispatch();
+        }
+
+        private void dispatchUpdate() {
+            final UpdateListener updateListener = mUpdateListener;
+            if (updateListener != null) {
+                mDispatchDepth++;
+                updateListener.onAnimationUpdate(this);
+                endDispatch();
+            }
+        }
+
+        /**
+         * Ends a listener notification, and completes a recycle requested during it.
+         */
+        private void endDispatch() {
+            mDispatchDepth--;
+            if (mDispatchDepth == 0 && mRecyclePending) {
+                mRecyclePending = false;
+                reset();
+                mPool.add(this);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private float getValue(int index) {
+            return mProperties[index].get(mTarget);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void setValue(int index, float value) {
+            mProperties[index].set(mTarget, value);
+        }
+
+        private void reset() {
+            mTarget = null;
+            for (int i = 0; i < mPropertyCount; i++) {
+                mProperties[i] = null;
+            }
+            mPropertyCount = 0;
+            mDuration = 0;
+            mDelay = 0;
+            mDurationScale = 1.0f;
+            mInterpolator = null;
+            mListener = null;
+            mSecondaryListener = null;
+            mUpdateListener = null;
+            mStarted = false;
+            mInitialized = false;
+            mCurrentPlayTime = 0;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final ArrayList<Animation> mPool = new ArrayList<Animation>();
+    private final ArrayList<Animation> mActive = new ArrayList<Animation>();
+    // Copy of mActive for the current frame, since listeners may start or cancel animations.
+    private Animation[] mFrameAnimations = new Animation[0];
+    private boolean mFrameScheduled;
+
+    // Counters for measuring allocations over a gesture.
+    private int mObtainedCount;
+    private int mAllocatedCount;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            final int count = mActive.size();
+            if (mFrameAnimations.length < count) {
+                mFrameAnimations = new Animation[count * 2];
+            }
+            mActive.toArray(mFrameAnimations);
+            for (int i = 0; i < count; i++) {
+                final Animation animation = mFrameAnimations[i];
+                mFrameAnimations[i] = null;
+                if (animation.mStarted) {
+                    animation.doFrame(frameTimeNanos);
+                }
+            }
+            scheduleFrame();
+        }
+    };
+
+    GlowPadAnimator(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns an animation of {@code target} over {@code duration} milliseconds.
+     */
+    <T> Animation obtain(T target, long duration) {
+        mObtainedCount++;
+        final Animation animation;
+        if (mPool.isEmpty()) {
+            mAllocatedCount++;
+            animation = new Animation();
+        } else {
+            animation = mPool.remove(mPool.size() - 1);
+        }
+        animation.mTarget = target;
+        animation.mDuration = duration;
+        return animation;
+    }
+
+    /**
+     * Cancels the animation if it is running and returns it to the pool.
+     */
+    void recycle(Animation animation) {
+        animation.cancel();
+        if (animation.mDispatchDepth > 0) {
+            // Completed by Animation.endDispatch() once its listeners return.
+            animation.mRecyclePending = true;
+            return;
+        }
+        animation.reset();
+        mPool.add(animation);
+    }
+
+    int getObtainedCount() {
+        return mObtainedCount;
+    }
+
+    int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    private float getDurationScale() {
+        return Settings.Global.getFloat(mContentResolver,
+                Settings.Global.ANIMATOR_DURATION_SCALE, 1.0f);
+    }
+
+    private void addActive(Animation animation) {
+        mActive.add(animation);
+        scheduleFrame();
+    }
+
+    private void removeActive(Animation animation) {
+        mActive.remove(animation);
+    }
+
+    private void scheduleFrame() {
+        if (!mFrameScheduled && !mActive.isEmpty()) {
+            mFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+}
@@ -16,12 +16,7 @@
 
 package com.android.incallui.widget.multiwaveview;
 
-import android.animation.Animator;
-import android.animation.Animator.AnimatorListener;
-import android.animation.AnimatorListenerAdapter;
 import android.animation.TimeInterpolator;
-import android.animation.ValueAnimator;
-import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -42,6 +37,9 @@ import android.view.View;
 import android.view.accessibility.AccessibilityManager;
 
 import com.android.incallui.R;
+import com.android.incallui.widget.multiwaveview.GlowPadAnimator.Animation;
+import com.android.incallui.widget.multiwaveview.GlowPadAnimator.AnimationListener;
+import com.android.incallui.widget.multiwaveview.GlowPadAnimator.UpdateListener;
 
 import java.util.ArrayList;
 
@@ -124,7 +122,7 @@ public class GlowPadView extends View {
     private boolean mDragging;
     private int mNewTargetResources;
 
-    private class AnimationBundle extends ArrayList<Tweener> {
+    private class AnimationBundle extends ArrayList<Animation> {
         private static final long serialVersionUID = 0xA84D78726F127468L;
         private boolean mSuspended;
 
@@ -132,27 +130,25 @@ public class GlowPadView extends View {
             if (mSuspended) return; // ignore attempts to start animations
             final int count = size();
             for (int i = 0; i < count; i++) {
-                Tweener anim = get(i);
-                anim.animator.start();
+                Animation anim = get(i);
+                anim.setSecondaryListener(mRunningAnimationListener);
+                anim.start();
             }
         }
 
         public void cancel() {
-            final int count = size();
-            for (int i = 0; i < count; i++) {
-                Tweener anim = get(i);
-                anim.animator.cancel();
+            // Listeners may start new animations in this bundle, so take each one out first.
+            while (!isEmpty()) {
+                mAnimator.recycle(remove(0));
             }
-            clear();
         }
 
         public void stop() {
-            final int count = size();
-            for (int i = 0; i < count; i++) {
-                Tweener anim = get(i);
-                anim.animator.end();
+            while (!isEmpty()) {
+                Animation anim = remove(0);
+                anim.end();
+                mAnimator.recycle(anim);
             }
-            clear();
         }
 
         public void setSuspended(boolean suspend) {
@@ -160,30 +156,45 @@ public class GlowPadView extends View {
         }
     };
 
-    private AnimatorListener mResetListener = new AnimatorListenerAdapter() {
-        public void onAnimationEnd(Animator animator) {
+    private int mRunningAnimationCount;
+    private AnimationListener mRunningAnimationListener = new AnimationListener() {
+        public void onAnimationStart(Animation animation) {
+            if (mRunningAnimationCount++ == 0) {
+                onAnimationsStarted();
+            }
+        }
+
+        public void onAnimationEnd(Animation animation) {
+            if (mRunningAnimationCount > 0 && --mRunningAnimationCount == 0) {
+                onAnimationsEnded();
+            }
+        }
+    };
+
+    private AnimationListener mResetListener = new AnimationListener() {
+        public void onAnimationEnd(Animation animation) {
             switchToState(STATE_IDLE, mWaveCenterX, mWaveCenterY);
             dispatchOnFinishFinalAnimation();
         }
     };
 
-    private AnimatorListener mResetListenerWithPing = new AnimatorListenerAdapter() {
-        public void onAnimationEnd(Animator animator) {
+    private AnimationListener mResetListenerWithPing = new AnimationListener() {
+        public void onAnimationEnd(Animation animation) {
             ping();
             switchToState(STATE_IDLE, mWaveCenterX, mWaveCenterY);
             dispatchOnFinishFinalAnimation();
         }
     };
 
-    private AnimatorUpdateListener mUpdateListener = new AnimatorUpdateListener() {
-        public void onAnimationUpdate(ValueAnimator animation) {
+    private UpdateListener mUpdateListener = new UpdateListener() {
+        public void onAnimationUpdate(Animation animation) {
             invalidate();
         }
     };
 
     private boolean mAnimatingTargets;
-    private AnimatorListener mTargetUpdateListener = new AnimatorListenerAdapter() {
-        public void onAnimationEnd(Animator animator) {
+    private AnimationListener mTargetUpdateListener = new AnimationListener() {
+        public void onAnimationEnd(Animation animation) {
             if (mNewTargetResources != 0) {
                 internalSetTargetResources(mNewTargetResources);
                 mNewTargetResources = 0;
@@ -200,7 +211,8 @@ public class GlowPadView extends View {
     private int mVerticalInset;
     private int mGravity = Gravity.TOP;
     private boolean mInitialLayout = true;
-    private Tweener mBackgroundAnimator;
+    private final GlowPadAnimator mAnimator;
+    private Animation mBackgroundAnimator;
     private PointCloud mPointCloud;
     private float mInnerRadius;
     private int mPointerId;
@@ -212,6 +224,7 @@ public class GlowPadView extends View {
     public GlowPadView(Context context, AttributeSet attrs) {
         super(context, attrs);
         Resources res = context.getResources();
+        mAnimator = new GlowPadAnimator(context);
 
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.GlowPadView);
         mInnerRadius = a.getDimension(R.styleable.GlowPadView_innerRadius, mInnerRadius);
@@ -289,6 +302,8 @@ public class GlowPadView extends View {
         Log.v(TAG, "GlowRadius = " + mGlowRadius);
         Log.v(TAG, "WaveCenterX = " + mWaveCenterX);
         Log.v(TAG, "WaveCenterY = " + mWaveCenterY);
+        Log.v(TAG, "Animations obtained = " + mAnimator.getObtainedCount()
+                + ", allocated = " + mAnimator.getAllocatedCount());
     }
 
     public void suspendAnimations() {
@@ -417,28 +432,28 @@ public class GlowPadView extends View {
     }
 
     private void showGlow(int duration, int delay, float finalAlpha,
-            AnimatorListener finishListener) {
+            AnimationListener finishListener) {
         mGlowAnimations.cancel();
-        mGlowAnimations.add(Tweener.to(mPointCloud.glowManager, duration,
-                "ease", Ease.Cubic.easeIn,
-                "delay", delay,
-                "alpha", finalAlpha,
-                "onUpdate", mUpdateListener,
-                "onComplete", finishListener));
+        mGlowAnimations.add(mAnimator.obtain(mPointCloud.glowManager, duration)
+                .setInterpolator(Ease.Cubic.easeIn)
+                .setDelay(delay)
+                .animate(GlowPadAnimator.GLOW_ALPHA, finalAlpha)
+                .setUpdateListener(mUpdateListener)
+                .setListener(finishListener));
         mGlowAnimations.start();
     }
 
     private void hideGlow(int duration, int delay, float finalAlpha,
-            AnimatorListener finishListener) {
+            AnimationListener finishListener) {
         mGlowAnimations.cancel();
-        mGlowAnimations.add(Tweener.to(mPointCloud.glowManager, duration,
-                "ease", Ease.Quart.easeOut,
-                "delay", delay,
-                "alpha", finalAlpha,
-                "x", 0.0f,
-                "y", 0.0f,
-                "onUpdate", mUpdateListener,
-                "onComplete", finishListener));
+        mGlowAnimations.add(mAnimator.obtain(mPointCloud.glowManager, duration)
+                .setInterpolator(Ease.Quart.easeOut)
+                .setDelay(delay)
+                .animate(GlowPadAnimator.GLOW_ALPHA, finalAlpha)
+                .animate(GlowPadAnimator.GLOW_X, 0.0f)
+                .animate(GlowPadAnimator.GLOW_Y, 0.0f)
+                .setUpdateListener(mUpdateListener)
+                .setListener(finishListener));
         mGlowAnimations.start();
     }
 
@@ -522,26 +537,26 @@ public class GlowPadView extends View {
         for (int i = 0; i < length; i++) {
             TargetDrawable target = mTargetDrawables.get(i);
             target.setState(TargetDrawable.STATE_INACTIVE);
-            mTargetAnimations.add(Tweener.to(target, duration,
-                    "ease", interpolator,
-                    "alpha", 0.0f,
-                    "scaleX", targetScale,
-                    "scaleY", targetScale,
-                    "delay", delay,
-                    "onUpdate", mUpdateListener));
+            mTargetAnimations.add(mAnimator.obtain(target, duration)
+                    .setInterpolator(interpolator)
+                    .animate(GlowPadAnimator.TARGET_ALPHA, 0.0f)
+                    .animate(GlowPadAnimator.TARGET_SCALE_X, targetScale)
+                    .animate(GlowPadAnimator.TARGET_SCALE_Y, targetScale)
+                    .setDelay(delay)
+                    .setUpdateListener(mUpdateListener));
         }
 
         float ringScaleTarget = expanded ?
                 RING_SCALE_EXPANDED : RING_SCALE_COLLAPSED;
         ringScaleTarget *= mRingScaleFactor;
-        mTargetAnimations.add(Tweener.to(mOuterRing, duration,
-                "ease", interpolator,
-                "alpha", 0.0f,
-                "scaleX", ringScaleTarget,
-                "scaleY", ringScaleTarget,
-                "delay", delay,
-                "onUpdate", mUpdateListener,
-                "onComplete", mTargetUpdateListener));
+        mTargetAnimations.add(mAnimator.obtain(mOuterRing, duration)
+                .setInterpolator(interpolator)
+                .animate(GlowPadAnimator.TARGET_ALPHA, 0.0f)
+                .animate(GlowPadAnimator.TARGET_SCALE_X, ringScaleTarget)
+                .animate(GlowPadAnimator.TARGET_SCALE_Y, ringScaleTarget)
+                .setDelay(delay)
+                .setUpdateListener(mUpdateListener)
+                .setListener(mTargetUpdateListener));
 
         mTargetAnimations.start();
     }
@@ -555,23 +570,23 @@ public class GlowPadView extends View {
         for (int i = 0; i < length; i++) {
             TargetDrawable target = mTargetDrawables.get(i);
             target.setState(TargetDrawable.STATE_INACTIVE);
-            mTargetAnimations.add(Tweener.to(target, duration,
-                    "ease", Ease.Cubic.easeOut,
-                    "alpha", 1.0f,
-                    "scaleX", 1.0f,
-                    "scaleY", 1.0f,
-                    "delay", delay,
-                    "onUpdate", mUpdateListener));
+            mTargetAnimations.add(mAnimator.obtain(target, duration)
+                    .setInterpolator(Ease.Cubic.easeOut)
+                    .animate(GlowPadAnimator.TARGET_ALPHA, 1.0f)
+                    .animate(GlowPadAnimator.TARGET_SCALE_X, 1.0f)
+                    .animate(GlowPadAnimator.TARGET_SCALE_Y, 1.0f)
+                    .setDelay(delay)
+                    .setUpdateListener(mUpdateListener));
         }
         float ringScale = mRingScaleFactor * RING_SCALE_EXPANDED;
-        mTargetAnimations.add(Tweener.to(mOuterRing, duration,
-                "ease", Ease.Cubic.easeOut,
-                "alpha", 1.0f,
-                "scaleX", ringScale,
-                "scaleY", ringScale,
-                "delay", delay,
-                "onUpdate", mUpdateListener,
-                "onComplete", mTargetUpdateListener));
+        mTargetAnimations.add(mAnimator.obtain(mOuterRing, duration)
+                .setInterpolator(Ease.Cubic.easeOut)
+                .animate(GlowPadAnimator.TARGET_ALPHA, 1.0f)
+                .animate(GlowPadAnimator.TARGET_SCALE_X, ringScale)
+                .animate(GlowPadAnimator.TARGET_SCALE_Y, ringScale)
+                .setDelay(delay)
+                .setUpdateListener(mUpdateListener)
+                .setListener(mTargetUpdateListener));
 
         mTargetAnimations.start();
     }
@@ -710,8 +725,8 @@ public class GlowPadView extends View {
             final AnimationBundle waveAnimations = mWaveAnimations;
 
             // Don't do a wave if there's already one in progress
-            if (waveAnimations.size() > 0 && waveAnimations.get(0).animator.isRunning()) {
-                long t = waveAnimations.get(0).animator.getCurrentPlayTime();
+            if (waveAnimations.size() > 0 && waveAnimations.get(0).isRunning()) {
+                long t = waveAnimations.get(0).getCurrentPlayTime();
                 if (t < WAVE_ANIMATION_DURATION/2) {
                     doWaveAnimation = false;
                 }
@@ -723,6 +738,13 @@ public class GlowPadView extends View {
         }
     }
 
+    private final AnimationListener mWaveEndListener = new AnimationListener() {
+        public void onAnimationEnd(Animation animation) {
+            mPointCloud.waveManager.setRadius(0.0f);
+            mPointCloud.waveManager.setAlpha(0.0f);
+        }
+    };
+
     private void stopAndHideWaveAnimation() {
         mWaveAnimations.cancel();
         mPointCloud.waveManager.setAlpha(0.0f);
@@ -732,18 +754,12 @@ public class GlowPadView extends View {
         mWaveAnimations.cancel();
         mPointCloud.waveManager.setAlpha(1.0f);
         mPointCloud.waveManager.setRadius(mHandleDrawable.getWidth()/2.0f);
-        mWaveAnimations.add(Tweener.to(mPointCloud.waveManager, WAVE_ANIMATION_DURATION,
-                "ease", Ease.Quad.easeOut,
-                "delay", 0,
-                "radius", 2.0f * mOuterRadius,
-                "onUpdate", mUpdateListener,
-                "onComplete",
-                new AnimatorListenerAdapter() {
-                    public void onAnimationEnd(Animator animator) {
-                        mPointCloud.waveManager.setRadius(0.0f);
-                        mPointCloud.waveManager.setAlpha(0.0f);
-                    }
-                }));
+        mWaveAnimations.add(mAnimator.obtain(mPointCloud.waveManager, WAVE_ANIMATION_DURATION)
+                .setInterpolator(Ease.Quad.easeOut)
+                .setDelay(0)
+                .animate(GlowPadAnimator.WAVE_RADIUS, 2.0f * mOuterRadius)
+                .setUpdateListener(mUpdateListener)
+                .setListener(mWaveEndListener));
         mWaveAnimations.start();
     }
 
@@ -760,20 +776,19 @@ public class GlowPadView extends View {
         stopAndHideWaveAnimation();
         hideTargets(animate, false);
         hideGlow(0, 0, 0.0f, null);
-        Tweener.reset();
     }
 
     private void startBackgroundAnimation(int duration, float alpha) {
         final Drawable background = getBackground();
         if (mAlwaysTrackFinger && background != null) {
             if (mBackgroundAnimator != null) {
-                mBackgroundAnimator.animator.cancel();
+                mAnimator.recycle(mBackgroundAnimator);
             }
-            mBackgroundAnimator = Tweener.to(background, duration,
-                    "ease", Ease.Cubic.easeIn,
-                    "alpha", (int)(255.0f * alpha),
-                    "delay", SHOW_ANIMATION_DELAY);
-            mBackgroundAnimator.animator.start();
+            mBackgroundAnimator = mAnimator.obtain(background, duration)
+                    .setInterpolator(Ease.Cubic.easeIn)
+                    .animate(GlowPadAnimator.DRAWABLE_ALPHA, (int)(255.0f * alpha))
+                    .setDelay(SHOW_ANIMATION_DELAY);
+            mBackgroundAnimator.start();
         }
     }
 
@@ -1179,6 +1194,18 @@ public class GlowPadView extends View {
         mHandleDrawable.draw(canvas);
     }
 
+    /**
+     * Called when the first of the wave, glow or target animations starts running.
+     */
+    protected void onAnimationsStarted() {
+    }
+
+    /**
+     * Called when the last running wave, glow or target animation has ended or been cancelled.
+     */
+    protected void onAnimationsEnded() {
+    }
+
     public void setOnTriggerListener(OnTriggerListener listener) {
         mOnTriggerListener = listener;
     }
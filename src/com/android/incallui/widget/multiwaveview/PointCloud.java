@@ -16,27 +16,48 @@
 
 package com.android.incallui.widget.multiwaveview;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.FloatMath;
 import android.util.Log;
 
-import java.util.ArrayList;
-
 public class PointCloud {
     private static final float MIN_POINT_SIZE = 2.0f;
     private static final float MAX_POINT_SIZE = 4.0f;
     private static final int INNER_POINTS = 8;
     private static final String TAG = "PointCloud";
-    private ArrayList<Point> mPointCloud = new ArrayList<Point>();
+    private static final float PI = (float) Math.PI;
+
+    // Falloff curves, sampled over one unit of distance (relative to the glow radius or the wave
+    // width) and linearly interpolated between samples.
+    private static final int FALLOFF_SAMPLES_PER_UNIT = 256;
+    // cos(PI/4 * t)^10 for t in [0, 1], the range in which the glow contributes.
+    private static final float[] GLOW_FALLOFF = makeFalloffTable(10, 1);
+    // cos(PI/4 * t)^20 has a period of 4 in t; one full period covers any distance.
+    private static final int WAVE_FALLOFF_PERIOD = 4;
+    private static final float[] WAVE_FALLOFF = makeFalloffTable(20, WAVE_FALLOFF_PERIOD);
+
+    // Points are kept as parallel arrays so drawing does not touch any per-point objects.
+    private int mPointCount;
+    private float[] mPointX = new float[0];
+    private float[] mPointY = new float[0];
+    // Distance of each point from the center of the cloud.
+    private float[] mPointDistance = new float[0];
+    // Size of each point relative to MAX_POINT_SIZE.
+    private float[] mPointScale = new float[0];
+
+    private final RectF mPointRect = new RectF();
     private Drawable mDrawable;
+    private Bitmap mPointBitmap;
     private float mCenterX;
     private float mCenterY;
     private Paint mPaint;
     private float mScale = 1.0f;
-    private static final float PI = (float) Math.PI;
 
     // These allow us to have multiple concurrent animations.
     WaveManager waveManager = new WaveManager();
@@ -103,18 +124,6 @@ public class PointCloud {
         }
     }
 
-    class Point {
-        float x;
-        float y;
-        float radius;
-
-        public Point(float x2, float y2, float r) {
-            x = (float) x2;
-            y = (float) y2;
-            radius = r;
-        }
-    }
-
     public PointCloud(Drawable drawable) {
         mPaint = new Paint();
         mPaint.setFilterBitmap(true);
@@ -125,7 +134,32 @@ public class PointCloud {
         mDrawable = drawable;
         if (mDrawable != null) {
             drawable.setBounds(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+            if (drawable instanceof BitmapDrawable) {
+                mPointBitmap = ((BitmapDrawable) drawable).getBitmap();
+            }
+        }
+    }
+
+    private static float[] makeFalloffTable(int power, int units) {
+        final float[] table = new float[units * FALLOFF_SAMPLES_PER_UNIT + 1];
+        for (int i = 0; i < table.length; i++) {
+            final float t = (float) i / FALLOFF_SAMPLES_PER_UNIT;
+            table[i] = (float) Math.pow(Math.cos(PI * 0.25f * t), power);
+        }
+        return table;
+    }
+
+    /**
+     * Looks up {@code t} (in units, t >= 0) in a falloff table, clamping to the end of the table.
+     */
+    private static float lookUpFalloff(float[] table, float t) {
+        final float position = t * FALLOFF_SAMPLES_PER_UNIT;
+        final int index = (int) position;
+        if (index >= table.length - 1) {
+            return table[table.length - 1];
         }
+        final float fraction = position - index;
+        return table[index] + (table[index + 1] - table[index]) * fraction;
     }
 
     public void setCenter(float x, float y) {
@@ -139,24 +173,43 @@ public class PointCloud {
             return;
         }
         mOuterRadius = outerRadius;
-        mPointCloud.clear();
         final float pointAreaRadius =  (outerRadius - innerRadius);
         final float ds = (2.0f * PI * innerRadius / INNER_POINTS);
         final int bands = (int) Math.round(pointAreaRadius / ds);
         final float dr = pointAreaRadius / bands;
+
+        int count = 0;
         float r = innerRadius;
+        for (int b = 0; b <= bands; b++, r += dr) {
+            count += (int) (2.0f * PI * r / ds);
+        }
+        if (mPointX.length < count) {
+            mPointX = new float[count];
+            mPointY = new float[count];
+            mPointDistance = new float[count];
+            mPointScale = new float[count];
+        }
+
+        int n = 0;
+        r = innerRadius;
         for (int b = 0; b <= bands; b++, r += dr) {
             float circumference = 2.0f * PI * r;
             final int pointsInBand = (int) (circumference / ds);
             float eta = PI/2.0f;
             float dEta = 2.0f * PI / pointsInBand;
-            for (int i = 0; i < pointsInBand; i++) {
+            final float pointScale =
+                    interp(MAX_POINT_SIZE, MIN_POINT_SIZE, r / outerRadius) / MAX_POINT_SIZE;
+            for (int i = 0; i < pointsInBand; i++, n++) {
                 float x = r * FloatMath.cos(eta);
                 float y = r * FloatMath.sin(eta);
                 eta += dEta;
-                mPointCloud.add(new Point(x, y, r));
+                mPointX[n] = x;
+                mPointY[n] = y;
+                mPointDistance[n] = hypot(x, y);
+                mPointScale[n] = pointScale;
             }
         }
+        mPointCount = n;
     }
 
     public void setScale(float scale) {
@@ -175,59 +228,91 @@ public class PointCloud {
         return a > b ? a : b;
     }
 
-    public int getAlphaForPoint(Point point) {
+    private int getAlphaForPoint(int index) {
+        final float x = mPointX[index];
+        final float y = mPointY[index];
+
         // Contribution from positional glow
-        float glowDistance = hypot(glowManager.x - point.x, glowManager.y - point.y);
         float glowAlpha = 0.0f;
-
-        if (glowDistance < glowManager.radius) {
-            float cosf = FloatMath.cos(PI * 0.25f * glowDistance / glowManager.radius);
-            glowAlpha = glowManager.alpha * max(0.0f, (float) Math.pow(cosf, 10.0f));
+        final float glowRadius = glowManager.radius;
+        if (glowManager.alpha > 0.0f && glowRadius > 0.0f) {
+            final float dx = glowManager.x - x;
+            final float dy = glowManager.y - y;
+            final float glowDistanceSquared = dx * dx + dy * dy;
+            // Most points are outside of the glow, so only take the square root for those inside.
+            if (glowDistanceSquared < glowRadius * glowRadius) {
+                final float glowDistance = FloatMath.sqrt(glowDistanceSquared);
+                glowAlpha = glowManager.alpha
+                        * lookUpFalloff(GLOW_FALLOFF, glowDistance / glowRadius);
+            }
         }
 
         // Compute contribution from Wave
-        float radius = hypot(point.x, point.y);
-        float distanceToWaveRing = (radius - waveManager.radius);
         float waveAlpha = 0.0f;
-        if (distanceToWaveRing < waveManager.width * 0.5f && distanceToWaveRing < 0.0f) {
-            float cosf = FloatMath.cos(PI * 0.25f * distanceToWaveRing / waveManager.width);
-            waveAlpha = waveManager.alpha * max(0.0f, (float) Math.pow(cosf, 20.0f));
+        final float distanceToWaveRing = (mPointDistance[index] - waveManager.radius);
+        if (waveManager.alpha > 0.0f
+                && distanceToWaveRing < waveManager.width * 0.5f && distanceToWaveRing < 0.0f) {
+            final float t = (-distanceToWaveRing / waveManager.width) % WAVE_FALLOFF_PERIOD;
+            waveAlpha = waveManager.alpha * lookUpFalloff(WAVE_FALLOFF, t);
         }
 
         return (int) (max(glowAlpha, waveAlpha) * 255);
     }
 
-    private float interp(float min, float max, float f) {
+    private static float interp(float min, float max, float f) {
         return min + (max - min) * f;
     }
 
     public void draw(Canvas canvas) {
-        ArrayList<Point> points = mPointCloud;
+        final float[] pointX = mPointX;
+        final float[] pointY = mPointY;
+        final float[] pointScale = mPointScale;
+        final int count = mPointCount;
+
         canvas.save(Canvas.MATRIX_SAVE_FLAG);
         canvas.scale(mScale, mScale, mCenterX, mCenterY);
-        for (int i = 0; i < points.size(); i++) {
-            Point point = points.get(i);
-            final float pointSize = interp(MAX_POINT_SIZE, MIN_POINT_SIZE,
-                    point.radius / mOuterRadius);
-            final float px = point.x + mCenterX;
-            final float py = point.y + mCenterY;
-            int alpha = getAlphaForPoint(point);
-
-            if (alpha == 0) continue;
-
-            if (mDrawable != null) {
+        if (mPointBitmap != null) {
+            // Draw the bitmap straight into each point's rectangle instead of transforming the
+            // canvas for every point.
+            final float halfWidth = mDrawable.getIntrinsicWidth() * 0.5f;
+            final float halfHeight = mDrawable.getIntrinsicHeight() * 0.5f;
+            for (int i = 0; i < count; i++) {
+                final int alpha = getAlphaForPoint(i);
+                if (alpha == 0) continue;
+
+                final float px = pointX[i] + mCenterX;
+                final float py = pointY[i] + mCenterY;
+                final float hw = halfWidth * pointScale[i];
+                final float hh = halfHeight * pointScale[i];
+                mPointRect.set(px - hw, py - hh, px + hw, py + hh);
+                mPaint.setAlpha(alpha);
+                canvas.drawBitmap(mPointBitmap, null, mPointRect, mPaint);
+            }
+        } else if (mDrawable != null) {
+            final float cx = mDrawable.getIntrinsicWidth() * 0.5f;
+            final float cy = mDrawable.getIntrinsicHeight() * 0.5f;
+            for (int i = 0; i < count; i++) {
+                final int alpha = getAlphaForPoint(i);
+                if (alpha == 0) continue;
+
+                final float px = pointX[i] + mCenterX;
+                final float py = pointY[i] + mCenterY;
+                final float s = pointScale[i];
                 canvas.save(Canvas.MATRIX_SAVE_FLAG);
-                final float cx = mDrawable.getIntrinsicWidth() * 0.5f;
-                final float cy = mDrawable.getIntrinsicHeight() * 0.5f;
-                final float s = pointSize / MAX_POINT_SIZE;
                 canvas.scale(s, s, px, py);
                 canvas.translate(px - cx, py - cy);
                 mDrawable.setAlpha(alpha);
                 mDrawable.draw(canvas);
                 canvas.restore();
-            } else {
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                final int alpha = getAlphaForPoint(i);
+                if (alpha == 0) continue;
+
                 mPaint.setAlpha(alpha);
-                canvas.drawCircle(px, py, pointSize, mPaint);
+                canvas.drawCircle(pointX[i] + mCenterX, pointY[i] + mCenterY,
+                        pointScale[i] * MAX_POINT_SIZE, mPaint);
             }
         }
         canvas.restore();